@@ -0,0 +1,237 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmarks for the parser, the serializer and the dump helpers. The
+ * GC profiler reports bytes allocated per operation next to throughput.
+ * 
+ * <pre>
+ * mvn -f bench/pom.xml package
+ * java -jar bench/target/benchmarks.jar [regex] [JMH options]
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShortcutBenchmark {
+
+	byte[] small;
+	byte[] typical;
+	byte[] large;
+	Path fsmall;
+	Path ftypical;
+	Path flarge;
+	Shortcut stypical;
+	ByteBuffer deep;
+	byte[] dump;
+	ShortcutParser parser;
+	ShortcutParser lazyParser;
+	ShortcutParser pooledParser;
+	Shortcut recycled;
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class).build()).run();
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		small = small().getBytes();
+		typical = typical().getBytes();
+		large = large().getBytes();
+		fsmall = temp("small", small);
+		ftypical = temp("typical", typical);
+		flarge = temp("large", large);
+		stypical = typical();
+		deep = ByteBuffer.wrap(idList(large())).order(ByteOrder.LITTLE_ENDIAN);
+		dump = Shortcut.shortToByte(Shortcut._shit0Unicode1);
+		parser = new ShortcutParser();
+		lazyParser = new ShortcutParser();
+		lazyParser.setLazy(true);
+		pooledParser = new ShortcutParser();
+		pooledParser.setStringPool(new StringPool());
+		recycled = new Shortcut();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(fsmall);
+		Files.deleteIfExists(ftypical);
+		Files.deleteIfExists(flarge);
+	}
+
+	@Benchmark
+	public Shortcut loadShortcutSmall() throws Exception {
+		return Shortcut.loadShortcut(fsmall);
+	}
+
+	@Benchmark
+	public Shortcut loadShortcutTypical() throws Exception {
+		return Shortcut.loadShortcut(ftypical);
+	}
+
+	@Benchmark
+	public Shortcut loadShortcutLarge() throws Exception {
+		return Shortcut.loadShortcut(flarge);
+	}
+
+	@Benchmark
+	public Shortcut parseTypical() throws Exception {
+		return Shortcut.parse(typical, 0, typical.length);
+	}
+
+	@Benchmark
+	public Shortcut parseLarge() throws Exception {
+		return Shortcut.parse(large, 0, large.length);
+	}
+
+	@Benchmark
+	public Shortcut shortcutParserTypical() throws Exception {
+		return parser.parse(ftypical, recycled);
+	}
+
+	@Benchmark
+	public Shortcut shortcutParserPooledTypical() throws Exception {
+		return pooledParser.parse(ftypical, recycled);
+	}
+
+	@Benchmark
+	public Shortcut shortcutParserLazyTypical() throws Exception {
+		return lazyParser.parse(ftypical, recycled);
+	}
+
+	@Benchmark
+	public byte[] getBytesTypical() {
+		return stypical.getBytes();
+	}
+
+	@Benchmark
+	public Shortcut getBytesRoundTrip() throws Exception {
+		byte[] b = Shortcut.parse(typical, 0, typical.length).getBytes();
+		return Shortcut.parse(b, 0, b.length);
+	}
+
+	@Benchmark
+	public Object parseShellItemIDListDeep() throws Exception {
+		return Shortcut.parseShellItemIDList(deep, 0);
+	}
+
+	@Benchmark
+	public String hexDump() {
+		return Shortcut.hexDump(dump);
+	}
+
+	@Benchmark
+	public String asciiDump() {
+		return Shortcut.asciiDump(dump);
+	}
+
+	/* relative path only */
+	static Shortcut small() {
+		Shortcut s = new Shortcut(".\\a.exe");
+		s.shellItemIDList = null;
+		return s;
+	}
+
+	/* desktop style link: id list, local volume, a few strings */
+	static Shortcut typical() throws IOException {
+		Shortcut s = new Shortcut(new File("c:\\dir\\kaper-d.exe"));
+		s.shellItemIDList.add(Shortcut.shortToByte(Shortcut._shit1Desktop0));
+		s.fileLocationInfo = new Shortcut.FileLocationInfo();
+		s.fileLocationInfo.lvt = new Shortcut.LocalVolumeTable();
+		s.fileLocationInfo.lvt.setVolumeLabel("win");
+		s.fileLocationInfo.setBasePathName("C:\\dir\\kaper-d.exe");
+		s.setDescription("kaper");
+		s.setRelativePath("..\\..\\dir\\kaper-d.exe");
+		s.setCommandLine("-v");
+		return s;
+	}
+
+	/* 30 level id list, network volume and long strings */
+	static Shortcut large() throws IOException {
+		Shortcut s = new Shortcut();
+		s.shellItemIDList.add(Shortcut.shortToByte(Shortcut._shit0CRoot0A));
+		StringBuilder path = new StringBuilder("\\\\fs01\\dept");
+		for (int i = 0; i < 30; i++) {
+			s.shellItemIDList.add(Shortcut.createDirSHID("directory" + i));
+			path.append("\\directory").append(i);
+		}
+		s.fileLocationInfo = new Shortcut.FileLocationInfo();
+		s.fileLocationInfo.nvt = new Shortcut.NetworkVolumeTable();
+		s.fileLocationInfo.nvt.setShareName("\\\\fs01\\dept");
+		s.fileLocationInfo.nvt.setLocalShareMapping("Z:");
+		s.fileLocationInfo.setRemainingPathName(path.substring(12));
+		s.setDescription(path.toString());
+		s.setRelativePath(path.toString());
+		s.setWorkingDirectory(path.toString());
+		s.setCommandLine(path.toString());
+		s.setIconFileName(path.toString());
+		return s;
+	}
+
+	static byte[] idList(Shortcut s) {
+		byte[] b = s.getBytes();
+		int len = (b[0x4C] & 0xFF) | (b[0x4D] & 0xFF) << 8;
+		byte[] out = new byte[len + 2];
+		System.arraycopy(b, 0x4C, out, 0, out.length);
+		return out;
+	}
+
+	static Path temp(String name, byte[] content) throws IOException {
+		File f = File.createTempFile("bench-" + name, ".lnk");
+		FileOutputStream os = new FileOutputStream(f);
+		try {
+			os.write(content);
+		} finally {
+			os.close();
+		}
+		return f.toPath();
+	}
+}
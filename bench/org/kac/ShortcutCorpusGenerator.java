@@ -0,0 +1,389 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes a reproducible corpus of synthetic shortcuts for load tests and
+ * benchmarks. File <code>i</code> only depends on the seed and
+ * <code>i</code>, so the corpus is the same whatever the thread count.
+ * Files are spread over <code>dir/a/b/i.lnk</code> with at most 1000
+ * entries per directory.
+ * 
+ * <pre>
+ * java -cp classes org.kac.ShortcutCorpusGenerator dir count [seed] [threads]
+ * </pre>
+ */
+public class ShortcutCorpusGenerator {
+
+	static final String[] WORDS = { "dokumenty", "program files", "Windows",
+			"system32", "projekt", "raport", "backup", "a", "Start Menu",
+			"Programs", "Desktop", "Pulpit", "totalcmd", "Microsoft Office",
+			"temp", "work", "share", "archive2009" };
+	static final String[] NON_ASCII = { "zażółć", "gęślą jaźń", "gość",
+			"Müller", "Übersicht", "日本語", "Ελληνικά", "файл", "naïve café" };
+	static final String[] EXTENSIONS = { ".exe", ".txt", ".doc", ".xls",
+			".pdf", ".lnk", ".bat", "" };
+	/* the blocks of MS-SHLLINK, 0 stands for a block it does not define */
+	static final int[] SIGNATURES = { ExtraData.ENVIRONMENT_VARIABLES,
+			0xA0000002, ExtraData.TRACKER, 0xA0000004, 0xA0000005,
+			0xA0000006, 0xA0000007, 0xA0000008, 0xA0000009, 0xA000000B,
+			0xA000000C, 0 };
+	static final String[] FACES = { "Consolas", "Lucida Console", "Terminal" };
+	static final int MAX_DEPTH = 30;
+	static final int PER_DIRECTORY = 1000;
+
+	final Path dir;
+	final long seed;
+
+	public ShortcutCorpusGenerator(Path dir, long seed) {
+		this.dir = dir;
+		this.seed = seed;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage: ShortcutCorpusGenerator dir count [seed] [threads]");
+			System.exit(1);
+		}
+		Path dir = Paths.get(args[0]);
+		long count = Long.parseLong(args[1]);
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : 0;
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime
+				.getRuntime().availableProcessors();
+		long t0 = System.nanoTime();
+		long bytes = new ShortcutCorpusGenerator(dir, seed).generate(count,
+				threads);
+		System.out.printf("%d files, %d bytes in %.1f s%n", count, bytes,
+				(System.nanoTime() - t0) / 1e9);
+	}
+
+	/**
+	 * Writes files <code>0..count-1</code>.
+	 * 
+	 * @return total number of bytes written
+	 */
+	public long generate(final long count, int threads) throws Exception {
+		final AtomicLong next = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		ExecutorService ex = Executors.newFixedThreadPool(threads);
+		try {
+			Future<?>[] f = new Future<?>[threads];
+			for (int t = 0; t < threads; t++)
+				f[t] = ex.submit(new java.util.concurrent.Callable<Void>() {
+					public Void call() throws Exception {
+						long i;
+						while ((i = next.getAndIncrement()) < count)
+							bytes.addAndGet(write(i));
+						return null;
+					}
+				});
+			for (Future<?> ft : f)
+				ft.get();
+		} finally {
+			ex.shutdown();
+		}
+		return bytes.get();
+	}
+
+	public Path path(long i) {
+		return dir.resolve(Long.toString(i / (PER_DIRECTORY * PER_DIRECTORY)))
+				.resolve(Long.toString(i / PER_DIRECTORY % PER_DIRECTORY))
+				.resolve(i + ".lnk");
+	}
+
+	/* writes file i and returns its size */
+	int write(long i) throws IOException, MalformedShortcutException {
+		Random r = new Random(seed * 0x9E3779B97F4A7C15L + i);
+		Shortcut s = shortcut(r);
+		ByteBuffer extra = extraData(r, s);
+		ByteBuffer body = ShortcutWriter.get().write(s, null);
+		/* extra data goes before the terminal block */
+		body.limit(body.limit() - ShortcutWriter.TERMINAL_SIZE);
+		ByteBuffer terminal = ByteBuffer.allocate(ShortcutWriter.TERMINAL_SIZE);
+		Path p = path(i);
+		Files.createDirectories(p.getParent());
+		FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer[] b = new ByteBuffer[] { body, extra, terminal };
+			long n = body.remaining() + extra.remaining() + terminal.remaining();
+			long w = 0;
+			while (w < n)
+				w += ch.write(b);
+			return (int) n;
+		} finally {
+			ch.close();
+		}
+	}
+
+	Shortcut shortcut(Random r) throws IOException {
+		Shortcut s = new Shortcut();
+		s.attributes = r.nextInt(1 << 13);
+		s.cTime = time(r);
+		s.mTime = time(r);
+		s.aTime = time(r);
+		s.fileLength = r.nextInt(1 << 24);
+		s.iconID = r.nextInt(8);
+		s.showWnd = r.nextInt(11);
+		s.hotKey = r.nextBoolean() ? 0 : r.nextInt(0x10000);
+		int depth = 1 + r.nextInt(MAX_DEPTH);
+		String target = path(r, depth);
+		/* every section is present with its own probability */
+		if (r.nextInt(4) == 0)
+			s.shellItemIDList = null;
+		else
+			idList(r, s, depth);
+		if (r.nextInt(4) != 0)
+			s.fileLocationInfo = fileLocationInfo(r, target);
+		if (r.nextBoolean())
+			s.setDescription(text(r, r.nextInt(4)));
+		if (r.nextBoolean())
+			s.setRelativePath(".\\" + target.substring(3));
+		if (r.nextBoolean())
+			s.setWorkingDirectory(target.substring(0, target.lastIndexOf('\\')));
+		if (r.nextInt(3) == 0)
+			s.setCommandLine(text(r, 1 + r.nextInt(3)));
+		if (r.nextInt(5) == 0)
+			s.setIconFileName("C:\\Windows\\system32\\shell32.dll");
+		return s;
+	}
+
+	void idList(Random r, Shortcut s, int depth) throws IOException {
+		s.shellItemIDList.add(Shortcut.shortToByte(Shortcut._shit0CRoot0A));
+		s.shellItemIDList.add(Shortcut.createRootSHID("C:\\"));
+		for (int d = 1; d < depth; d++)
+			s.shellItemIDList.add(Shortcut.createDirSHID(name(r)));
+		s.shellItemIDList.add(Shortcut.createFileSHID(name(r)
+				+ EXTENSIONS[r.nextInt(EXTENSIONS.length)]));
+	}
+
+	Shortcut.FileLocationInfo fileLocationInfo(Random r, String target) {
+		Shortcut.FileLocationInfo fli = new Shortcut.FileLocationInfo();
+		/* FileLocationInfo strings are US-ASCII */
+		String ascii = ascii(target);
+		if (r.nextBoolean()) {
+			fli.lvt = new Shortcut.LocalVolumeTable();
+			fli.lvt.type = 3;
+			fli.lvt.serial = r.nextInt();
+			fli.lvt.setVolumeLabel(r.nextBoolean() ? "win" : WORDS[r
+					.nextInt(WORDS.length)]);
+			fli.setBasePathName(ascii);
+			fli.setRemainingPathName("");
+		} else {
+			fli.nvt = new Shortcut.NetworkVolumeTable();
+			fli.nvt.setShareName("\\\\fs" + r.nextInt(100) + "\\"
+					+ ascii(WORDS[r.nextInt(WORDS.length)]));
+			if (r.nextBoolean())
+				fli.nvt.setLocalShareMapping((char) ('E' + r.nextInt(20)) + ":");
+			fli.setRemainingPathName(ascii.substring(3));
+		}
+		return fli;
+	}
+
+	/*
+	 * 0 to 3 extra data blocks of distinct signatures, each of its
+	 * specified size and layout; random payloads only go into blocks of an
+	 * undefined signature
+	 */
+	ByteBuffer extraData(Random r, Shortcut s) throws IOException {
+		int n = r.nextInt(4);
+		int chosen = 0;
+		ByteBuffer b = ByteBuffer.allocate(n * 0x1000).order(
+				ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < n; i++) {
+			int k = r.nextInt(SIGNATURES.length);
+			if ((chosen & 1 << k) != 0)
+				continue;
+			chosen |= 1 << k;
+			int start = b.position();
+			int signature = SIGNATURES[k];
+			if (signature == 0)
+				signature = 0xA0000100 + r.nextInt(0x100);
+			b.putInt(0);
+			b.putInt(signature);
+			block(r, s, b, signature);
+			b.putInt(start, b.position() - start);
+		}
+		b.flip();
+		return b;
+	}
+
+	/* content of a block after its size and signature */
+	void block(Random r, Shortcut s, ByteBuffer b, int signature)
+			throws IOException {
+		switch (signature) {
+		case ExtraData.ENVIRONMENT_VARIABLES:
+		case 0xA0000007: /* IconEnvironment */
+			/* 0x314 bytes */
+			String target = "%SystemRoot%\\system32\\" + name(r)
+					+ EXTENSIONS[r.nextInt(EXTENSIONS.length)];
+			zstring(b, ascii(target).getBytes(StandardCharsets.US_ASCII), 260);
+			zstring(b, target.getBytes(StandardCharsets.UTF_16LE), 520);
+			break;
+		case 0xA0000006: /* Darwin */
+			String id = ascii(text(r, 2));
+			zstring(b, id.getBytes(StandardCharsets.US_ASCII), 260);
+			zstring(b, id.getBytes(StandardCharsets.UTF_16LE), 520);
+			break;
+		case 0xA0000002: /* Console, 0xCC bytes */
+			b.putShort((short) 0x07);
+			b.putShort((short) 0xF5);
+			b.putShort((short) 80).putShort((short) (300 + r.nextInt(9000)));
+			b.putShort((short) 80).putShort((short) (25 + r.nextInt(50)));
+			b.putShort((short) 0).putShort((short) 0);
+			b.putInt(0).putInt(0);
+			b.putInt((12 + r.nextInt(12)) << 16);
+			b.putInt(0x36);
+			b.putInt(r.nextBoolean() ? 400 : 700);
+			zstring(b, FACES[r.nextInt(FACES.length)].getBytes(
+					StandardCharsets.UTF_16LE), 64);
+			b.putInt(25);
+			b.putInt(0);
+			b.putInt(r.nextInt(2));
+			b.putInt(1);
+			b.putInt(1);
+			b.putInt(50);
+			b.putInt(4);
+			b.putInt(0);
+			for (int i = 0; i < 16; i++)
+				b.putInt(r.nextInt(1 << 24));
+			break;
+		case ExtraData.TRACKER:
+			/* 0x60 bytes */
+			b.putInt(0x58);
+			b.putInt(0);
+			zstring(b, ("pc-" + r.nextInt(10000))
+					.getBytes(StandardCharsets.US_ASCII), 16);
+			for (int i = 0; i < 4; i++)
+				guid(r, b);
+			break;
+		case 0xA0000004: /* ConsoleFE, 0x0C bytes */
+			b.putInt(r.nextBoolean() ? 1250 : 65001);
+			break;
+		case 0xA0000005: /* SpecialFolder, 0x10 bytes */
+			b.putInt(r.nextInt(0x3B));
+			b.putInt(itemOffset(r, s));
+			break;
+		case 0xA000000B: /* KnownFolder, 0x1C bytes */
+			guid(r, b);
+			b.putInt(itemOffset(r, s));
+			break;
+		case 0xA0000008: /* Shim, 0x88 bytes or more */
+			zstring(b, ("Layer_" + ascii(name(r)))
+					.getBytes(StandardCharsets.UTF_16LE), 128);
+			break;
+		case 0xA0000009: /* PropertyStore, an empty serialized store */
+			b.putInt(0);
+			break;
+		case 0xA000000C: /* VistaAndAboveIDList */
+			int depth = 1 + r.nextInt(3);
+			for (int d = 0; d < depth; d++) {
+				byte[] item = (d + 1 < depth) ? Shortcut.createDirSHID(name(r))
+						: Shortcut.createFileSHID(name(r));
+				b.putShort((short) (item.length + 2));
+				b.put(item);
+			}
+			b.putShort((short) 0);
+			break;
+		default:
+			/* not defined by the format, random content */
+			int len = 4 * r.nextInt(200);
+			for (int i = 0; i < len; i++)
+				b.put((byte) r.nextInt(256));
+		}
+	}
+
+	/* offset of one of the target's id list items, 0 without a list */
+	static int itemOffset(Random r, Shortcut s) {
+		if (s.shellItemIDList == null || s.shellItemIDList.isEmpty())
+			return 0;
+		return s.shellItemIDList.offset(r.nextInt(s.shellItemIDList.size()));
+	}
+
+	/* NUL terminated and padded to a field of size bytes */
+	static void zstring(ByteBuffer b, byte[] s, int size) {
+		int len = Math.min(s.length, size - 2);
+		b.put(s, 0, len);
+		for (int i = len; i < size; i++)
+			b.put((byte) 0);
+	}
+
+	static void guid(Random r, ByteBuffer b) {
+		b.putLong(r.nextLong());
+		b.putLong(r.nextLong());
+	}
+
+	static String path(Random r, int depth) {
+		StringBuilder sb = new StringBuilder("C:");
+		for (int d = 0; d < depth; d++)
+			sb.append('\\').append(name(r));
+		return sb.append(EXTENSIONS[r.nextInt(EXTENSIONS.length)]).toString();
+	}
+
+	static String name(Random r) {
+		if (r.nextInt(5) == 0)
+			return NON_ASCII[r.nextInt(NON_ASCII.length)];
+		String w = WORDS[r.nextInt(WORDS.length)];
+		return r.nextBoolean() ? w : w + r.nextInt(1000);
+	}
+
+	/* from empty to a few hundred characters */
+	static String text(Random r, int words) {
+		StringBuilder sb = new StringBuilder();
+		if (r.nextInt(10) == 0)
+			words *= 30;
+		for (int i = 0; i < words; i++) {
+			if (i > 0)
+				sb.append(' ');
+			sb.append(name(r));
+		}
+		return sb.toString();
+	}
+
+	static String ascii(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			sb.append((c < 0x80) ? c : '_');
+		}
+		return sb.toString();
+	}
+
+	/* FILETIME between 2000 and 2010 */
+	static long time(Random r) {
+		return 125911584000000000L + (long) (r.nextDouble() * 3155760000000000L);
+	}
+}
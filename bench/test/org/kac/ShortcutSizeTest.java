@@ -0,0 +1,74 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/**
+ * The writer sizes its buffer by byteSize(), which has to match the bytes
+ * written for built, parsed, lazily parsed and extra data carrying shapes.
+ */
+public class ShortcutSizeTest {
+
+	@Test
+	public void byteSizeMatchesWrittenBytes() throws Exception {
+		Shortcut empty = new Shortcut();
+		empty.shellItemIDList = null;
+		Shortcut[] built = { empty, ShortcutBenchmark.small(),
+				ShortcutBenchmark.typical(), ShortcutBenchmark.large() };
+		for (Shortcut s : built) {
+			byte[] b = s.getBytes();
+			assertEquals(s.byteSize(), b.length);
+			checkSize(Shortcut.parse(b, 0, b.length));
+			checkSize(Shortcut.parseLazy(b, 0, b.length));
+			Shortcut.FileLocationInfo fli = s.fileLocationInfo;
+			if (fli != null) {
+				assertEquals(fli.byteSize(), fli.getBytes().length);
+				if (fli.lvt != null)
+					assertEquals(fli.lvt.byteSize(), fli.lvt.getBytes().length);
+				if (fli.nvt != null)
+					assertEquals(fli.nvt.byteSize(), fli.nvt.getBytes().length);
+			}
+			byte[] x = withExtraData(b);
+			checkSize(Shortcut.parse(x, 0, x.length));
+			checkSize(Shortcut.parseLazy(x, 0, x.length));
+		}
+	}
+
+	static void checkSize(Shortcut s) {
+		assertEquals(s.byteSize(), s.getBytes().length);
+	}
+
+	/* b with a tracker block before its terminal block */
+	static byte[] withExtraData(byte[] b) {
+		int body = b.length - ShortcutWriter.TERMINAL_SIZE;
+		ByteBuffer x = ByteBuffer.allocate(b.length + 0x60).order(
+				ByteOrder.LITTLE_ENDIAN);
+		x.put(b, 0, body).putInt(0x60).putInt(ExtraData.TRACKER);
+		x.position(body + 0x60);
+		return x.putInt(0).array();
+	}
+}
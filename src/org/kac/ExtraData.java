@@ -0,0 +1,286 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.kac.MalformedShortcutException.Reason;
+
+/**
+ * The extra data blocks following the string sections of a shortcut. Every
+ * block is a 32 bit size (including itself) and a 32 bit signature followed
+ * by its content, a size below 4 ends the list. The parser only records
+ * where each block starts and what it is, blocks are decoded by their
+ * getters when asked for.
+ */
+public final class ExtraData {
+
+	public static final int ENVIRONMENT_VARIABLES = 0xA0000001;
+	public static final int TRACKER = 0xA0000003;
+
+	static final int ENVIRONMENT_VARIABLES_SIZE = 0x314;
+	static final int TRACKER_SIZE = 0x60;
+	static final byte[] EMPTY = new byte[0];
+	static final int[] NO_BLOCKS = new int[0];
+	/* of every shortcut without blocks, never filled */
+	static final ExtraData NONE = new ExtraData();
+
+	/* holds the blocks, the parsed file or an owned copy of its tail */
+	ByteBuffer buff = null;
+	/* index of the first block in buff and its offset in the file */
+	int origin;
+	int start;
+	int count = 0;
+	/* offset from start, size and signature of every block */
+	int[] blocks = NO_BLOCKS;
+	/* owned copy, reused by the next parse */
+	byte[] copy = EMPTY;
+	EnvironmentVariables environment = null;
+	Tracker tracker = null;
+
+	void clear() {
+		buff = null;
+		count = 0;
+		environment = null;
+		tracker = null;
+	}
+
+	void add(int offset, int size, int signature) {
+		if (3 * count + 3 > blocks.length)
+			blocks = Arrays.copyOf(blocks, Math.max(3 * 4, 2 * blocks.length));
+		blocks[3 * count] = offset;
+		blocks[3 * count + 1] = size;
+		blocks[3 * count + 2] = signature;
+		count++;
+	}
+
+	/*
+	 * blocks were added relative to start, they lie in [start, end) of src;
+	 * unless keep the bytes are copied, src may change after the parse
+	 */
+	void attach(ByteBuffer src, int start, int end, boolean keep) {
+		this.start = start;
+		if (keep) {
+			buff = src;
+			origin = start;
+			return;
+		}
+		int len = end - start;
+		if (copy.length < len)
+			copy = new byte[Math.max(len, 2 * copy.length)];
+		src.get(start, copy, 0, len);
+		buff = ByteBuffer.wrap(copy, 0, len);
+		origin = 0;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Offset of the block in the file.
+	 */
+	public int offset(int index) {
+		check(index);
+		return start + blocks[3 * index];
+	}
+
+	/**
+	 * Size of the block including its size and signature.
+	 */
+	public int length(int index) {
+		check(index);
+		return blocks[3 * index + 1];
+	}
+
+	public int signature(int index) {
+		check(index);
+		return blocks[3 * index + 2];
+	}
+
+	/**
+	 * Index of the first block with the signature, -1 if there is none.
+	 */
+	public int indexOf(int signature) {
+		for (int i = 0; i < count; i++)
+			if (blocks[3 * i + 2] == signature)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * The whole block, size and signature included, as a read-only little
+	 * endian view.
+	 */
+	public ByteBuffer block(int index) {
+		int off = origin + blocks[3 * check(index)];
+		return buff.slice(off, blocks[3 * index + 1]).asReadOnlyBuffer()
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	int check(int index) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		return index;
+	}
+
+	/* buff index of the block with the signature, which must span size */
+	int find(int signature, int size) throws MalformedShortcutException {
+		int i = indexOf(signature);
+		if (i < 0)
+			return -1;
+		if (blocks[3 * i + 1] < size)
+			throw new MalformedShortcutException(Reason.BAD_LENGTH,
+					offset(i), "block " + Integer.toHexString(signature)
+							+ " of " + blocks[3 * i + 1] + " bytes");
+		return origin + blocks[3 * i];
+	}
+
+	/**
+	 * The environment variable target, null when the shortcut has none.
+	 */
+	public EnvironmentVariables getEnvironmentVariables()
+			throws MalformedShortcutException {
+		if (environment == null) {
+			int off = find(ENVIRONMENT_VARIABLES, ENVIRONMENT_VARIABLES_SIZE);
+			if (off >= 0)
+				environment = new EnvironmentVariables(asciiz(buff, off + 8,
+						260), uStringz(buff, off + 8 + 260, 260));
+		}
+		return environment;
+	}
+
+	/**
+	 * The distributed link tracking data, null when the shortcut has none.
+	 */
+	public Tracker getTracker() throws MalformedShortcutException {
+		if (tracker == null) {
+			int off = find(TRACKER, TRACKER_SIZE);
+			if (off >= 0)
+				tracker = new Tracker(asciiz(buff, off + 0x10, 16), guid(buff,
+						off + 0x20), guid(buff, off + 0x30), guid(buff,
+						off + 0x40), guid(buff, off + 0x50));
+		}
+		return tracker;
+	}
+
+	/* NUL terminated single byte string in a field of max bytes */
+	static String asciiz(ByteBuffer buff, int off, int max) {
+		int len = 0;
+		while (len < max && buff.get(off + len) != 0)
+			len++;
+		return Shortcut.getString(buff, off, len);
+	}
+
+	/* NUL terminated UTF-16LE string in a field of max characters */
+	static String uStringz(ByteBuffer buff, int off, int max) {
+		int len = 0;
+		while (len < max && LittleEndian.getChar(buff, off + 2 * len) != 0)
+			len++;
+		return Shortcut.getUString(buff, off, len);
+	}
+
+	/* GUID, its first three fields are little endian */
+	static UUID guid(ByteBuffer buff, int off) {
+		long msb = ((long) LittleEndian.getInt(buff, off) << 32)
+				| ((LittleEndian.getShort(buff, off + 4) & 0xFFFFL) << 16)
+				| (LittleEndian.getShort(buff, off + 6) & 0xFFFFL);
+		return new UUID(msb, Long.reverseBytes(LittleEndian.getLong(buff,
+				off + 8)));
+	}
+
+	public static final class EnvironmentVariables {
+		final String ansiTarget;
+		final String unicodeTarget;
+
+		EnvironmentVariables(String ansiTarget, String unicodeTarget) {
+			this.ansiTarget = ansiTarget;
+			this.unicodeTarget = unicodeTarget;
+		}
+
+		public String getAnsiTarget() {
+			return ansiTarget;
+		}
+
+		/**
+		 * The target path with unexpanded variables, e.g.
+		 * <code>%windir%\notepad.exe</code>.
+		 */
+		public String getUnicodeTarget() {
+			return unicodeTarget;
+		}
+
+		public String toString() {
+			return unicodeTarget;
+		}
+	}
+
+	public static final class Tracker {
+		final String machineID;
+		final UUID volumeID;
+		final UUID objectID;
+		final UUID birthVolumeID;
+		final UUID birthObjectID;
+
+		Tracker(String machineID, UUID volumeID, UUID objectID,
+				UUID birthVolumeID, UUID birthObjectID) {
+			this.machineID = machineID;
+			this.volumeID = volumeID;
+			this.objectID = objectID;
+			this.birthVolumeID = birthVolumeID;
+			this.birthObjectID = birthObjectID;
+		}
+
+		/**
+		 * NetBIOS name of the machine the target was last seen on.
+		 */
+		public String getMachineID() {
+			return machineID;
+		}
+
+		public UUID getVolumeID() {
+			return volumeID;
+		}
+
+		public UUID getObjectID() {
+			return objectID;
+		}
+
+		public UUID getBirthVolumeID() {
+			return birthVolumeID;
+		}
+
+		public UUID getBirthObjectID() {
+			return birthObjectID;
+		}
+
+		public String toString() {
+			return machineID + " " + volumeID + " " + objectID;
+		}
+	}
+}
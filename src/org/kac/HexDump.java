@@ -0,0 +1,177 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * Hex and ascii dumps streamed into any Appendable in linear time. Output is
+ * built a line at a time in a char buffer from a precomputed digit table, so
+ * neither String.format nor intermediate strings are involved.
+ * 
+ * <p>
+ * The default instance reproduces the format of {@link Shortcut#hexDump}:
+ * <code>0x4C, 0x00, ...</code> with a line break every 8 bytes.
+ */
+public final class HexDump {
+
+	static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+	/* "0xHH, " for every byte value */
+	static final char[] HEX = new char[256 * 6];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			HEX[i * 6] = '0';
+			HEX[i * 6 + 1] = 'x';
+			HEX[i * 6 + 2] = DIGITS[i >> 4];
+			HEX[i * 6 + 3] = DIGITS[i & 0xF];
+			HEX[i * 6 + 4] = ',';
+			HEX[i * 6 + 5] = ' ';
+		}
+	}
+
+	public static final HexDump DEFAULT = new HexDump(8, false,
+			Integer.MAX_VALUE);
+	/* unwrapped, as used by Shortcut.asciiDump */
+	static final HexDump LINE = DEFAULT.width(0);
+
+	final int width;
+	final boolean offsetColumn;
+	final int maxBytes;
+
+	/**
+	 * @param width
+	 *            bytes per line, 0 for a single line
+	 * @param offsetColumn
+	 *            start each line with the offset of its first byte
+	 * @param maxBytes
+	 *            bytes dumped at most, the rest is summarized by a trailer
+	 */
+	public HexDump(int width, boolean offsetColumn, int maxBytes) {
+		if (width < 0 || maxBytes < 0)
+			throw new IllegalArgumentException();
+		this.width = width;
+		this.offsetColumn = offsetColumn;
+		this.maxBytes = maxBytes;
+	}
+
+	public HexDump width(int width) {
+		return new HexDump(width, offsetColumn, maxBytes);
+	}
+
+	public HexDump offsetColumn(boolean offsetColumn) {
+		return new HexDump(width, offsetColumn, maxBytes);
+	}
+
+	public HexDump maxBytes(int maxBytes) {
+		return new HexDump(width, offsetColumn, maxBytes);
+	}
+
+	public void hex(byte[] in, int off, int len, Appendable out)
+			throws IOException {
+		dump(in, off, len, out, true);
+	}
+
+	/**
+	 * Bytes as ISO-8859-1 characters, zero bytes as '_'.
+	 */
+	public void ascii(byte[] in, int off, int len, Appendable out)
+			throws IOException {
+		dump(in, off, len, out, false);
+	}
+
+	public String hex(byte[] in) {
+		StringBuilder sb = new StringBuilder(in.length * 6 + in.length / 4);
+		try {
+			hex(in, 0, in.length, sb);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return sb.toString();
+	}
+
+	public String ascii(byte[] in) {
+		StringBuilder sb = new StringBuilder(in.length + in.length / 4);
+		try {
+			ascii(in, 0, in.length, sb);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return sb.toString();
+	}
+
+	void dump(byte[] in, int off, int len, Appendable out, boolean hex)
+			throws IOException {
+		if (off < 0 || len < 0 || off > in.length - len)
+			throw new IndexOutOfBoundsException("range " + off + "+" + len
+					+ " outside of " + in.length + " bytes");
+		int n = Math.min(len, maxBytes);
+		int perLine = (width > 0) ? width : Math.max(n, 1);
+		int cell = hex ? 6 : 1;
+		char[] line = new char[1 + 12 + Math.min(perLine, n + 1) * cell];
+		CharBuffer cb = null;
+		for (int i = 0; i < n; i += perLine) {
+			int c = 0;
+			if (i > 0)
+				line[c++] = '\n';
+			if (offsetColumn) {
+				for (int shift = 28; shift >= 0; shift -= 4)
+					line[c++] = DIGITS[(i >>> shift) & 0xF];
+				line[c++] = ':';
+				line[c++] = ' ';
+			}
+			int end = Math.min(n, i + perLine);
+			for (int j = i; j < end; j++) {
+				int b = in[off + j] & 0xFF;
+				if (hex) {
+					System.arraycopy(HEX, b * 6, line, c, 6);
+					c += 6;
+				} else
+					line[c++] = (b == 0) ? '_' : (char) b;
+			}
+			cb = write(out, line, c, cb);
+		}
+		if (n < len) {
+			if (n > 0)
+				out.append('\n');
+			out.append("... ").append(Integer.toString(len - n)).append(
+					" more bytes");
+		}
+	}
+
+	static CharBuffer write(Appendable out, char[] line, int n, CharBuffer cb)
+			throws IOException {
+		if (out instanceof StringBuilder)
+			((StringBuilder) out).append(line, 0, n);
+		else if (out instanceof Writer)
+			((Writer) out).write(line, 0, n);
+		else {
+			if (cb == null)
+				cb = CharBuffer.wrap(line);
+			cb.clear();
+			cb.limit(n);
+			out.append(cb);
+		}
+		return cb;
+	}
+}
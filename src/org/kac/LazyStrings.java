@@ -0,0 +1,99 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Offsets and lengths of string fields that were not decoded yet. A lazily
+ * parsed {@link Shortcut} shares one instance with its FileLocationInfo and
+ * volume tables; every getter decodes its slot on first use.
+ */
+final class LazyStrings {
+
+	/* slots */
+	static final int S_DESCRIPTION = 0;
+	static final int S_RELATIVE_PATH = 1;
+	static final int S_WORKING_DIRECTORY = 2;
+	static final int S_COMMAND_LINE = 3;
+	static final int S_ICON_FILE_NAME = 4;
+	static final int S_SOMETHING = 5;
+	static final int S_VOLUME_LABEL = 6;
+	static final int S_BASE_PATH_NAME = 7;
+	static final int S_SHARE_NAME = 8;
+	static final int S_LOCAL_SHARE_MAPPING = 9;
+	static final int S_REMAINING_PATH_NAME = 10;
+	static final int SLOTS = 11;
+
+	ByteBuffer source;
+	/* offset, length pairs; length is in characters */
+	final int[] spans = new int[SLOTS * 2];
+	int pending = 0;
+	int unicode = 0;
+	/* decodes the POOLED slots when set */
+	StringPool pool = null;
+
+	static final int POOLED = 1 << S_WORKING_DIRECTORY | 1 << S_VOLUME_LABEL
+			| 1 << S_BASE_PATH_NAME | 1 << S_SHARE_NAME;
+
+	LazyStrings(ByteBuffer source) {
+		this.source = source;
+	}
+
+	/* forgets every slot, for a new source */
+	void reset(ByteBuffer source) {
+		this.source = source;
+		pending = 0;
+		unicode = 0;
+	}
+
+	void set(int slot, int offset, int length, boolean utf16) {
+		Shortcut.checkRange(source, offset, utf16 ? length * 2 : length);
+		spans[slot * 2] = offset;
+		spans[slot * 2 + 1] = length;
+		pending |= 1 << slot;
+		if (utf16)
+			unicode |= 1 << slot;
+		else
+			unicode &= ~(1 << slot);
+	}
+
+	boolean pending(int slot) {
+		return (pending & (1 << slot)) != 0;
+	}
+
+	/**
+	 * Decodes the slot and forgets it, the caller keeps the string.
+	 */
+	String take(int slot) {
+		pending &= ~(1 << slot);
+		int off = spans[slot * 2];
+		int len = spans[slot * 2 + 1];
+		StringPool p = ((POOLED & (1 << slot)) != 0) ? pool : null;
+		if ((unicode & (1 << slot)) != 0)
+			return Shortcut.getUString(source, off, len, p);
+		return Shortcut.getString(source, off, len, p);
+	}
+
+	void drop(int slot) {
+		pending &= ~(1 << slot);
+	}
+}
@@ -0,0 +1,105 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ * Little-endian primitive access used by both the parser and the writer.
+ * Every access is bounds checked up front and fails with an
+ * IndexOutOfBoundsException naming the range; the parser turns that into a
+ * MalformedShortcutException. ByteBuffer accessors use absolute indexes and
+ * ignore the buffer's own byte order.
+ */
+final class LittleEndian {
+
+	static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(
+			short[].class, ByteOrder.LITTLE_ENDIAN);
+	static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(
+			int[].class, ByteOrder.LITTLE_ENDIAN);
+	static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(
+			long[].class, ByteOrder.LITTLE_ENDIAN);
+	static final VarHandle BB_SHORT = MethodHandles.byteBufferViewVarHandle(
+			short[].class, ByteOrder.LITTLE_ENDIAN);
+	static final VarHandle BB_INT = MethodHandles.byteBufferViewVarHandle(
+			int[].class, ByteOrder.LITTLE_ENDIAN);
+	static final VarHandle BB_LONG = MethodHandles.byteBufferViewVarHandle(
+			long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private LittleEndian() {
+	}
+
+	static short getShort(byte[] in, int idx) {
+		Objects.checkFromIndexSize(idx, 2, in.length);
+		return (short) SHORT.get(in, idx);
+	}
+
+	static int getInt(byte[] in, int idx) {
+		Objects.checkFromIndexSize(idx, 4, in.length);
+		return (int) INT.get(in, idx);
+	}
+
+	static long getLong(byte[] in, int idx) {
+		Objects.checkFromIndexSize(idx, 8, in.length);
+		return (long) LONG.get(in, idx);
+	}
+
+	static int setShort(byte[] out, int idx, short val) {
+		Objects.checkFromIndexSize(idx, 2, out.length);
+		SHORT.set(out, idx, val);
+		return 2;
+	}
+
+	static int setInt(byte[] out, int idx, int val) {
+		Objects.checkFromIndexSize(idx, 4, out.length);
+		INT.set(out, idx, val);
+		return 4;
+	}
+
+	static int setLong(byte[] out, int idx, long val) {
+		Objects.checkFromIndexSize(idx, 8, out.length);
+		LONG.set(out, idx, val);
+		return 8;
+	}
+
+	static short getShort(ByteBuffer in, int idx) {
+		Objects.checkFromIndexSize(idx, 2, in.limit());
+		return (short) BB_SHORT.get(in, idx);
+	}
+
+	static int getInt(ByteBuffer in, int idx) {
+		Objects.checkFromIndexSize(idx, 4, in.limit());
+		return (int) BB_INT.get(in, idx);
+	}
+
+	static long getLong(ByteBuffer in, int idx) {
+		Objects.checkFromIndexSize(idx, 8, in.limit());
+		return (long) BB_LONG.get(in, idx);
+	}
+
+	static char getChar(ByteBuffer in, int idx) {
+		return (char) getShort(in, idx);
+	}
+}
@@ -27,6 +27,49 @@ public class MalformedShortcutException extends Exception {
 	 */
 	private static final long serialVersionUID = 5990186301831959814L;
 
+	public enum Reason {
+		/** not reported by the thrower */
+		UNSPECIFIED,
+		/** magic number or GUID do not match */
+		BAD_HEADER,
+		/** a structure extends past the end of the data */
+		TRUNCATED,
+		/** a length or count field is impossible */
+		BAD_LENGTH,
+		/** an offset field points outside its structure */
+		BAD_OFFSET,
+		/** the data exceeds a {@link ShortcutLimits} bound */
+		LIMIT_EXCEEDED
+	}
+
+	Reason reason = Reason.UNSPECIFIED;
+	/* of the offending field in the shortcut, -1 if unknown */
+	int offset = -1;
+
+	public MalformedShortcutException(Reason reason, int offset,
+			String message) {
+		this(reason, offset, message, null);
+	}
+
+	public MalformedShortcutException(Reason reason, int offset,
+			String message, Throwable cause) {
+		super((offset < 0) ? message : message + " at 0x"
+				+ Integer.toHexString(offset), cause);
+		this.reason = reason;
+		this.offset = offset;
+	}
+
+	public Reason getReason() {
+		return reason;
+	}
+
+	/**
+	 * Offset of the offending field from the start of the shortcut, or -1.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
 	public MalformedShortcutException() {
 		// TODO Auto-generated constructor stub
 	}
@@ -0,0 +1,165 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.kac.Shortcut.ShellItemID;
+
+/**
+ * The item id list of a shortcut kept as it is stored in the file: every
+ * item is a 16 bit size (including itself) followed by its content, all in
+ * one backing array. The total length word and the zero terminator are not
+ * stored. Item offsets are only tabulated when indexed access asks for them,
+ * walking with a {@link Cursor} needs none.
+ */
+final class ShellItemIDList {
+
+	static final byte[] EMPTY = new byte[0];
+
+	byte[] data;
+	int length;
+	int count;
+	/* start of every item record, built on demand */
+	int[] offsets = null;
+
+	ShellItemIDList() {
+		this(EMPTY, 0, 0);
+	}
+
+	/* takes ownership of data */
+	ShellItemIDList(byte[] data, int length, int count) {
+		this.data = data;
+		this.length = length;
+		this.count = count;
+	}
+
+	/**
+	 * Walks the item records without allocating per item.
+	 */
+	final class Cursor {
+		int index = -1;
+		int offset = 0;
+		int next = 0;
+
+		boolean next() {
+			if (next >= length)
+				return false;
+			offset = next;
+			next += LittleEndian.getShort(data, offset) & 0xFFFF;
+			index++;
+			return true;
+		}
+
+		int index() {
+			return index;
+		}
+
+		/* of the item record in data, content starts 2 bytes later */
+		int offset() {
+			return offset;
+		}
+
+		int contentLength() {
+			return next - offset - 2;
+		}
+	}
+
+	Cursor cursor() {
+		return new Cursor();
+	}
+
+	int size() {
+		return count;
+	}
+
+	boolean isEmpty() {
+		return count == 0;
+	}
+
+	/* item records without the length word and terminator */
+	int byteLength() {
+		return length;
+	}
+
+	int offset(int index) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		if (offsets == null) {
+			int[] o = new int[Math.max(count, 4)];
+			Cursor c = cursor();
+			while (c.next())
+				o[c.index()] = c.offset();
+			offsets = o;
+		}
+		return offsets[index];
+	}
+
+	int contentLength(int index) {
+		return (LittleEndian.getShort(data, offset(index)) & 0xFFFF) - 2;
+	}
+
+	byte[] content(int index) {
+		int off = offset(index);
+		int len = (LittleEndian.getShort(data, off) & 0xFFFF) - 2;
+		return Arrays.copyOfRange(data, off + 2, off + 2 + len);
+	}
+
+	ShellItemID get(int index) {
+		return new ShellItemID(content(index));
+	}
+
+	void add(byte[] content) {
+		int rec = content.length + 2;
+		if (rec > 0xFFFF)
+			throw new IllegalArgumentException("item too long: "
+					+ content.length);
+		if (length + rec > data.length)
+			data = Arrays.copyOf(data, Math.max(length + rec, Math.max(64,
+					data.length * 2)));
+		LittleEndian.setShort(data, length, (short) rec);
+		System.arraycopy(content, 0, data, length + 2, content.length);
+		if (offsets != null) {
+			if (count == offsets.length)
+				offsets = Arrays.copyOf(offsets, count * 2);
+			offsets[count] = length;
+		}
+		length += rec;
+		count++;
+	}
+
+	/* replaces the content with len bytes of item records at off */
+	void load(ByteBuffer src, int off, int len, int count) {
+		if (data.length < len)
+			data = new byte[len];
+		src.get(off, data, 0, len);
+		length = len;
+		this.count = count;
+		offsets = null;
+	}
+
+	void clear() {
+		length = 0;
+		count = 0;
+		offsets = null;
+	}
+}
@@ -30,10 +30,24 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.List;
-import java.util.Vector;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.kac.MalformedShortcutException.Reason;
 import java.util.Map.Entry;
 
 public class Shortcut {
@@ -44,6 +58,8 @@ public class Shortcut {
 	static final byte[] _headerGUID = new byte[] { 0x01, 0x14, 0x02, 0x00,
 			0x00, 0x00, 0x00, 0x00,/* 0xC0 */-0x40, 0x00, 0x00, 0x00, 0x00,
 			0x00, 0x00, 0x46 };
+	/* everything up to the item id list */
+	static final int HEADER_SIZE = 0x4C;
 
 	/* flags */
 	static final int F_ID_LIST = 1 << 0;
@@ -54,6 +70,8 @@ public class Shortcut {
 	static final int F_COMMAND_LINE = 1 << 5;
 	static final int F_CUSTOM_ICON = 1 << 6;
 	static final int F_SOMETHING = 1 << 7;
+	/* not a header flag, asks the parser for the extra data blocks */
+	static final int W_EXTRA_DATA = F_SOMETHING << 1;
 
 	/* attributes */
 	static final int A_READONLY = 1 << 0; // Target is read only.
@@ -110,7 +128,7 @@ public class Shortcut {
 	int showWnd = SW_NORMAL;
 	int hotKey = 0;
 	long unknown0 = 0;
-	Vector<ShellItemID> shellItemIDList = null;
+	ShellItemIDList shellItemIDList = null;
 	FileLocationInfo fileLocationInfo = null;
 	String description = null;
 	String relativePath = null;
@@ -119,21 +137,63 @@ public class Shortcut {
 	String iconFileName = null;
 	String something = null;
 	int unknown1 = 0;
+	/* undecoded strings of a lazily parsed shortcut */
+	LazyStrings lazy = null;
+	/* location info kept by reset() for the next parse */
+	FileLocationInfo spareLocation = null;
+	ExtraData extraData = null;
+	ExtraData spareExtraData = null;
+	/* blocks walked but not indexed, terminal block excluded; -1 if not */
+	int extraStart = -1;
+	int extraEnd = -1;
+
+	/**
+	 * The optional sections of a shortcut, in file order.
+	 */
+	public enum Section {
+		ID_LIST(F_ID_LIST), LOCATION(F_LOCATION), DESCRIPTION(F_DESCRIPTION),
+		RELATIVE_PATH(F_RELATIVE_PATH), WORKING_DIRECTORY(F_WORKING_DIRECTORY),
+		COMMAND_LINE(F_COMMAND_LINE), ICON_FILE_NAME(F_CUSTOM_ICON),
+		SOMETHING(F_SOMETHING), EXTRA_DATA(W_EXTRA_DATA);
+
+		/* the header flag announcing the section, W_ for extra data */
+		final int flag;
+
+		Section(int flag) {
+			this.flag = flag;
+		}
+
+		static int mask(Set<Section> sections) {
+			int m = 0;
+			for (Section s : sections)
+				m |= s.flag;
+			return m;
+		}
+	}
 
 	static class ShellItemID {
 		byte[] content = null;
 
 		ShellItemID(byte[] content) {
 			this.content = content;
-			Charset.defaultCharset().name();
 		}
 
 		public String toString() {
 			return "ShellItemId: " + hexDump(content)+"\n"+"ShellItemIdAscii: " + asciiDump(content);
 		}
+
+		/**
+		 * Same as toString(), streamed into <code>out</code>.
+		 */
+		public void dumpTo(Appendable out, HexDump format) throws IOException {
+			out.append("ShellItemId: ");
+			format.hex(content, 0, content.length, out);
+			out.append("\nShellItemIdAscii: ");
+			format.width(0).ascii(content, 0, content.length, out);
+		}
 	}
 
-	static class FileLocationInfo {
+	public static class FileLocationInfo {
 		/*
 		 * all dwordThis is the total length of this structure and all following
 		 * dataThis is a pointer to first offset after this structure. 1ChFlags
@@ -151,90 +211,235 @@ public class Shortcut {
 		NetworkVolumeTable nvt = null;
 		String remainingPathName = null;
 		String basePathName = null;
+		LazyStrings lazy = null;
+		/* volume tables kept by recycle() for the next parse */
+		LocalVolumeTable spareLvt = null;
+		NetworkVolumeTable spareNvt = null;
+
+		/* back to the state of a new instance, keeping the tables aside */
+		void recycle() {
+			if (lvt != null)
+				spareLvt = lvt;
+			if (nvt != null)
+				spareNvt = nvt;
+			length = 0;
+			offset = 0x1C;
+			flags = 0;
+			offLVI = offLBP = offNVI = offRPN = 0;
+			lvt = null;
+			nvt = null;
+			remainingPathName = null;
+			basePathName = null;
+			lazy = null;
+		}
+
+		public int getFlags() {
+			return flags;
+		}
+
+		public LocalVolumeTable getLocalVolumeTable() {
+			return lvt;
+		}
+
+		public NetworkVolumeTable getNetworkVolumeTable() {
+			return nvt;
+		}
+
+		public String getBasePathName() {
+			if (lazy != null && lazy.pending(LazyStrings.S_BASE_PATH_NAME))
+				basePathName = lazy.take(LazyStrings.S_BASE_PATH_NAME);
+			return basePathName;
+		}
+
+		public void setBasePathName(String basePathName) {
+			if (lazy != null)
+				lazy.drop(LazyStrings.S_BASE_PATH_NAME);
+			this.basePathName = basePathName;
+		}
+
+		public String getRemainingPathName() {
+			if (lazy != null && lazy.pending(LazyStrings.S_REMAINING_PATH_NAME))
+				remainingPathName = lazy.take(LazyStrings.S_REMAINING_PATH_NAME);
+			return remainingPathName;
+		}
+
+		public void setRemainingPathName(String remainingPathName) {
+			if (lazy != null)
+				lazy.drop(LazyStrings.S_REMAINING_PATH_NAME);
+			this.remainingPathName = remainingPathName;
+		}
+
+		/* base path joined with the remaining path, null without a base path */
+		String localPath() {
+			String base = getBasePathName();
+			if (base == null || base.length() == 0)
+				return null;
+			String rest = getRemainingPathName();
+			return (rest == null) ? base : base + rest;
+		}
+
+		/* share name joined with the remaining path, null without a share */
+		String networkPath() {
+			if (nvt == null || nvt.getShareName() == null)
+				return null;
+			String rest = getRemainingPathName();
+			if (rest == null || rest.length() == 0)
+				return nvt.getShareName();
+			return nvt.getShareName() + "\\" + rest;
+		}
 
 		byte[] getBytes(){
-			int size = 0;
-			byte[] buff = null;
 			try {
-				byte[] bvt = null;
-				byte[] bbpn = null;
-				byte[] brpn = null;
-				int iflag=0;
-				int off=0;
-				if(lvt!=null){
-					iflag=FF_LOCAL;
-					bvt = lvt.getBytes();
-				}else if(nvt!=null){
-					iflag=FF_NETWORK;
-					bvt = nvt.getBytes();
-				}
-				else
-					throw new MalformedShortcutException("no lvt or nvt");
-				
-				bbpn = (basePathName!=null)?basePathName.getBytes("US-ASCII"):null;
-				brpn = (remainingPathName!=null)?remainingPathName.getBytes("US-ASCII"):null;
-				int ibpn = (bbpn!=null)?bbpn.length+1:0;
-				int irpn = (brpn!=null)?brpn.length+1:0;
-				int ivt = bvt.length;
-				size = 7*4 + ibpn + irpn + ivt;
-				System.out.println(size);
-				buff = new byte[size];
-				setInt(buff, 0x00, size);
-				setInt(buff, 0x04, 0x1C);
-				setInt(buff, 0x08, iflag);
-				setInt(buff, 0x0C, 0x1C);
-				setInt(buff, 0x10, 0x1C+ivt);
-				setInt(buff, 0x14, 0x1C);
-				setInt(buff, 0x18, 0x1C+ivt+ibpn);
-				//System.out.println(asciiDump(brpn));
-				if(ivt>0)copyArray(buff, bvt, 0x1C);
-				if(ibpn>0)copyArray(buff, bbpn, 0x1C+ivt);
-				if(irpn>0)copyArray(buff, brpn, 0x1C+ivt+ibpn);
-			}catch(Exception e){e.printStackTrace(); buff=null;}
-			return buff;
+				return ShortcutWriter.toArray(ShortcutWriter.get().write(this));
+			} catch (MalformedShortcutException e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Exact serialized size in bytes.
+		 */
+		public int byteSize() {
+			int size = 0x1C;
+			if (lvt != null)
+				size += lvt.byteSize() + asciizSize(ShortcutWriter.nonNull(getBasePathName()));
+			else {
+				if (nvt != null)
+					size += nvt.byteSize();
+				size += asciizSize(getBasePathName());
+			}
+			return size + asciizSize(ShortcutWriter.nonNull(getRemainingPathName()));
 		}
 		String toString(String indent) {
+			StringBuilder sb = new StringBuilder(256);
+			try {
+				describeTo(sb, indent);
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+			return sb.toString();
+		}
+
+		public void describeTo(Appendable out, String indent)
+				throws IOException {
 			String ind = (indent == null) ? "" : indent;
-			String ls = System.getProperty("line.separator");
-			String s = "";
-			s = "fileLocationInfo:" + ls + ind + "length:" + length + ls + ind
-					+ "offset:" + offset + ls + ind + "flags:"
-					+ (((flags & FF_LOCAL) > 0) ? "local;" : "")
-					+ (((flags & FF_NETWORK) > 0) ? "network;" : "") + ls
-					+ ((lvt != null) ? ind + lvt.toString(ind + ind) : "")
-					+ ((nvt != null) ? ind + nvt.toString(ind + ind) : "");
-			return s;
+			out.append("fileLocationInfo:").append(LS).append(ind).append(
+					"length:");
+			appendNumber(out, length);
+			out.append(LS).append(ind).append("offset:");
+			appendNumber(out, offset);
+			out.append(LS).append(ind).append("flags:");
+			if ((flags & FF_LOCAL) > 0)
+				out.append("local;");
+			if ((flags & FF_NETWORK) > 0)
+				out.append("network;");
+			out.append(LS);
+			if (lvt != null) {
+				out.append(ind);
+				lvt.describeTo(out, ind + ind);
+			}
+			if (nvt != null) {
+				out.append(ind);
+				nvt.describeTo(out, ind + ind);
+			}
 		}
 	}
 	
 	
-	static FileLocationInfo parseFileLocationInfo(byte[] buff, int offset)
+	/* strict check of the table at offNVI of the location info at offset */
+	static void checkNetworkVolumeTable(ByteBuffer buff, int offset,
+			int offNVI, int end) throws MalformedShortcutException {
+		require(offNVI >= 0x1C && within(offNVI, 0x14, end),
+				Reason.BAD_OFFSET, offset + 0x14, "NetworkVolumeTable offset");
+		int at = offset + offNVI;
+		int length = getInt(buff, at);
+		int mappingLength = getInt(buff, at + 0x04);
+		int offNS = getInt(buff, at + 0x08);
+		int offMapping = getInt(buff, at + 0x0C);
+		require(within(offNVI, length, end), Reason.BAD_LENGTH, at,
+				"NetworkVolumeTable of " + length + " bytes");
+		require(mappingLength >= 0
+				&& within(offNS, length - 0x14 - mappingLength, length)
+				&& length - 0x14 - mappingLength >= 1, Reason.BAD_OFFSET,
+				at + 0x08, "share name");
+		if (offMapping > 0)
+			require(mappingLength >= 1
+					&& within(offMapping, mappingLength, length),
+					Reason.BAD_OFFSET, at + 0x0C, "local share mapping");
+	}
+
+	static FileLocationInfo parseFileLocationInfo(ByteBuffer buff, int offset)
 			throws MalformedShortcutException {
-		FileLocationInfo fli = new FileLocationInfo();
+		return parseFileLocationInfo(buff, offset, null);
+	}
+
+	static FileLocationInfo parseFileLocationInfo(ByteBuffer buff, int offset,
+			LazyStrings ls) throws MalformedShortcutException {
+		return parseFileLocationInfo(buff, offset, ls, null, null, null);
+	}
+
+	/*
+	 * fli, when not null, is a recycled instance that gets overwritten
+	 */
+	static FileLocationInfo parseFileLocationInfo(ByteBuffer buff, int offset,
+			LazyStrings ls, FileLocationInfo fli, StringPool pool,
+			ShortcutLimits limits) throws MalformedShortcutException {
+		if (fli == null)
+			fli = new FileLocationInfo();
+		fli.lazy = ls;
 		fli.length = getInt(buff, offset + 0x00);
 		fli.offset = getInt(buff, offset + 0x04);
 		fli.flags = getInt(buff, offset + 0x08);
+		/* in strict mode every field has to stay inside the structure */
+		int end = fli.length;
 		if ((fli.flags & FF_LOCAL) > 0) {
 			fli.offLVI = getInt(buff, offset + 0x0C);
 			fli.offLBP = getInt(buff, offset + 0x10);
-			LocalVolumeTable lvt = new LocalVolumeTable();
+			if (limits != null) {
+				int lvtLength = getInt(buff, offset + 0x1C);
+				require(lvtLength > 0x10 && within(0x1C, lvtLength, end),
+						Reason.BAD_LENGTH, offset + 0x1C, "LocalVolumeTable of "
+								+ lvtLength + " bytes");
+				require(fli.offLBP >= 0x1C && within(fli.offLBP, 2, end),
+						Reason.BAD_OFFSET, offset + 0x10,
+						"base path name offset");
+			}
+			LocalVolumeTable lvt = fli.spareLvt;
+			if (lvt == null)
+				lvt = new LocalVolumeTable();
+			lvt.volumeLabel = null;
 			lvt.length = getInt(buff, offset + 0x1C);
 			lvt.type = getInt(buff, offset + 0x20);
 			lvt.serial = getInt(buff, offset + 0x24);
 			lvt.offVL = getInt(buff, offset + 0x28);
-			lvt.volumeLabel = new String(subarray(buff, offset + 0x2C,
-					lvt.length - 0x10 -1));
+			lvt.lazy = ls;
+			if (ls != null)
+				ls.set(LazyStrings.S_VOLUME_LABEL, offset + 0x2C,
+						lvt.length - 0x10 - 1, false);
+			else
+				lvt.volumeLabel = getString(buff, offset + 0x2C,
+						lvt.length - 0x10 -1, pool);
 			//System.out.println("volumeLabel: " + lvt.volumeLabel);
 			fli.lvt = lvt;
-			fli.basePathName = new String(subarray(buff, offset + fli.offLBP,
-					fli.length - fli.offLBP-2));
+			if (ls != null)
+				ls.set(LazyStrings.S_BASE_PATH_NAME, offset + fli.offLBP,
+						fli.length - fli.offLBP - 2, false);
+			else
+				fli.basePathName = getString(buff, offset + fli.offLBP,
+						fli.length - fli.offLBP-2, pool);
 			//System.out.println(hexDump(subarray(buff, offset+0x1C, lvt.length)));
 			//System.out.println(hexDump(lvt.getBytes()));
 			//if(byteMatch(lvt.getBytes(),buff,offset+0x1C))
 			//	System.out.println("mathes");
 		} else if ((fli.flags & FF_NETWORK) > 0) {
 			fli.offNVI = getInt(buff, offset + 0x014);
-			NetworkVolumeTable nvt = new NetworkVolumeTable();
+			if (limits != null)
+				checkNetworkVolumeTable(buff, offset, fli.offNVI, end);
+			NetworkVolumeTable nvt = fli.spareNvt;
+			if (nvt == null)
+				nvt = new NetworkVolumeTable();
+			nvt.shareName = null;
+			nvt.localShareMapping = null;
 			nvt.length = getInt(buff, offset + fli.offNVI);
 			nvt.unknown0 = getInt(buff, offset + fli.offNVI + 0x04);
 			nvt.offNS = getInt(buff, offset + fli.offNVI + 0x08);
@@ -244,12 +449,21 @@ public class Shortcut {
 			// System.out.println(Integer.toHexString(fli.offNVI));
 			// System.out.println(asciiDump(subarray(buff,
 			// offset+fli.offNVI+nvt.offNS, nvt.length-0x14)));
-			nvt.shareName = new String(subarray(buff, offset + fli.offNVI
-					+ nvt.offNS, nvt.length - 0x14-nvt.unknown0-1));
+			nvt.lazy = ls;
+			if (ls != null)
+				ls.set(LazyStrings.S_SHARE_NAME, offset + fli.offNVI
+						+ nvt.offNS, nvt.length - 0x14 - nvt.unknown0 - 1, false);
+			else
+				nvt.shareName = getString(buff, offset + fli.offNVI
+						+ nvt.offNS, nvt.length - 0x14-nvt.unknown0-1, pool);
 			// System.out.println("shareName: "+nvt.shareName);
 			if (nvt.unknown1 > 0) {
-				nvt.localShareMapping = new String(subarray(buff, offset
-						+ fli.offNVI + nvt.unknown1, nvt.unknown0-1));
+				if (ls != null)
+					ls.set(LazyStrings.S_LOCAL_SHARE_MAPPING, offset
+							+ fli.offNVI + nvt.unknown1, nvt.unknown0 - 1, false);
+				else
+					nvt.localShareMapping = getString(buff, offset
+							+ fli.offNVI + nvt.unknown1, nvt.unknown0-1);
 				// System.out.println("mappedDisc: "+nvt.localShareMapping);
 			}
 			fli.nvt = nvt;
@@ -260,11 +474,20 @@ public class Shortcut {
 			//nvt.localShareMapping = "F:";
 			//System.out.println(asciiDump(nvt.getBytes()));
 		} else
-			throw new MalformedShortcutException(
+			throw new MalformedShortcutException(Reason.UNSPECIFIED,
+					offset + 0x08,
 					"corrupted FileLocationInfo structure, field 'flag'==0");
 		fli.offRPN = getInt(buff, offset + 0x18);
-		fli.remainingPathName = new String(subarray(buff, offset + fli.offRPN,
-				fli.length - fli.offRPN -1));
+		if (limits != null)
+			require(fli.offRPN >= 0x1C && within(fli.offRPN, 1, end),
+					Reason.BAD_OFFSET, offset + 0x18,
+					"remaining path name offset");
+		if (ls != null)
+			ls.set(LazyStrings.S_REMAINING_PATH_NAME, offset + fli.offRPN,
+					fli.length - fli.offRPN - 1, false);
+		else
+			fli.remainingPathName = getString(buff, offset + fli.offRPN,
+					fli.length - fli.offRPN -1);
 		// System.out.println("fli.rpathName off:"+Integer.toHexString(fli.offRPN+offset));
 		//System.out.println("fli.baseathName"+fli.basePathName);
 		/*System.out.println("fli.rpathName:" + fli.remainingPathName);
@@ -277,7 +500,7 @@ public class Shortcut {
 		return fli;
 	}
 
-	static class LocalVolumeTable {
+	public static class LocalVolumeTable {
 		// all dword, label is asciz
 		// Length of this structure.
 		// Type of volume
@@ -289,48 +512,68 @@ public class Shortcut {
 		int serial = 0;
 		int offVL = 0x10;
 		String volumeLabel = null;
+		LazyStrings lazy = null;
 
-		
+		public int getType() {
+			return type;
+		}
+
+		public int getSerial() {
+			return serial;
+		}
+
+		public String getVolumeLabel() {
+			if (lazy != null && lazy.pending(LazyStrings.S_VOLUME_LABEL))
+				volumeLabel = lazy.take(LazyStrings.S_VOLUME_LABEL);
+			return volumeLabel;
+		}
+
+		public void setVolumeLabel(String volumeLabel) {
+			if (lazy != null)
+				lazy.drop(LazyStrings.S_VOLUME_LABEL);
+			this.volumeLabel = volumeLabel;
+		}
 
 		byte[] getBytes() {
-			int size = 0;
-			byte[] buff = null;
+			return ShortcutWriter.toArray(ShortcutWriter.get().write(this));
+		}
+
+		/**
+		 * Exact serialized size in bytes.
+		 */
+		public int byteSize() {
+			return 0x10 + asciizSize(getVolumeLabel());
+		}
+
+		String toString(String indent) {
+			StringBuilder sb = new StringBuilder(128);
 			try {
-				byte[] vl = (volumeLabel != null) ? volumeLabel
-						.getBytes("US-ASCII") : null;
-				int ivl = (vl != null) ? vl.length+1  : 0;
-				size = 4 * 4 + ivl;
-				buff = new byte[size];
-				System.out.println(size);
-				setInt(buff, 0x00, size);
-				setInt(buff, 0x04, type);
-				setInt(buff, 0x08, serial);
-				setInt(buff, 0x0C, 0x10);
-				if (ivl > 0) {
-					copyArray(buff, vl, 0x10);
-					buff[ivl - 1] = 0x00;
-				}
-								
-			} catch (Exception e) {
-				e.printStackTrace();
-				buff = null;
+				describeTo(sb, indent);
+			} catch (IOException e) {
+				throw new AssertionError(e);
 			}
-			return buff;
+			return sb.toString();
 		}
 
-		String toString(String indent) {
+		public void describeTo(Appendable out, String indent)
+				throws IOException {
 			String ind = (indent == null) ? "" : indent;
-			String ls = System.getProperty("line.separator");
-			String s = "";
-			s = "LocalVolumeTable:" + ls + ind + "length:" + length + ls + ind
-					+ "type:" + type + ls + ind + "serial:" + serial + ls + ind
-					+ "offVL:" + offVL + ls
-					+ ((volumeLabel != null) ? ind + volumeLabel + ls : "");
-			return s;
+			out.append("LocalVolumeTable:").append(LS).append(ind).append(
+					"length:");
+			appendNumber(out, length);
+			out.append(LS).append(ind).append("type:");
+			appendNumber(out, type);
+			out.append(LS).append(ind).append("serial:");
+			appendNumber(out, serial);
+			out.append(LS).append(ind).append("offVL:");
+			appendNumber(out, offVL);
+			out.append(LS);
+			if (getVolumeLabel() != null)
+				out.append(ind).append(getVolumeLabel()).append(LS);
 		}
 	}
 
-	static class NetworkVolumeTable {
+	public static class NetworkVolumeTable {
 		// all dword, shareName is asciz
 		// Length of this structure
 		// Unknown, always 2h?
@@ -345,102 +588,128 @@ public class Shortcut {
 		int unknown2 = 0x020000;// in my its 0x140000
 		String shareName = null;
 		String localShareMapping = null;
+		LazyStrings lazy = null;
+
+		public String getShareName() {
+			if (lazy != null && lazy.pending(LazyStrings.S_SHARE_NAME))
+				shareName = lazy.take(LazyStrings.S_SHARE_NAME);
+			return shareName;
+		}
+
+		public void setShareName(String shareName) {
+			if (lazy != null)
+				lazy.drop(LazyStrings.S_SHARE_NAME);
+			this.shareName = shareName;
+		}
+
+		public String getLocalShareMapping() {
+			if (lazy != null && lazy.pending(LazyStrings.S_LOCAL_SHARE_MAPPING))
+				localShareMapping = lazy.take(LazyStrings.S_LOCAL_SHARE_MAPPING);
+			return localShareMapping;
+		}
+
+		public void setLocalShareMapping(String localShareMapping) {
+			if (lazy != null)
+				lazy.drop(LazyStrings.S_LOCAL_SHARE_MAPPING);
+			this.localShareMapping = localShareMapping;
+		}
 
 		byte[] getBytes() {
-			int size = 0;
-			byte[] buff = null;
-			try {
-				byte[] lsm = (localShareMapping != null) ? localShareMapping
-						.getBytes("US-ASCII") : null;
-				byte[] sn = (shareName != null) ? shareName
-						.getBytes("US-ASCII") : null;
-				int ilsm = (lsm != null) ? lsm.length+1 : 0;
-				int isn = (sn != null) ? sn.length+1  : 0;
-				size = 5 * 4 + ilsm + isn;
-				buff = new byte[size];
-				System.out.println(size);
-				setInt(buff, 0x00, byteSize());
-				setInt(buff, 0x04, ilsm);
-				setInt(buff, 0x08, 0x14);
-				setInt(buff, 0x0C, 0x14 + isn);
-				setInt(buff, 0x10, 0x140000);
-				if (isn > 0) {
-					copyArray(buff, sn, 0x14);
-					buff[isn - 1] = 0x00;
-				}
-				if (ilsm > 0) {
-					copyArray(buff, lsm, 0x14 + isn);
-					buff[0x14 + isn - 1] = 0x00;
-				}
-				
-			} catch (Exception e) {
-				e.printStackTrace();
-				buff = null;
-			}
-			return buff;
+			return ShortcutWriter.toArray(ShortcutWriter.get().write(this));
 		}
 
-		int byteSize() {
-			int size = 0;
+		/**
+		 * Exact serialized size in bytes.
+		 */
+		public int byteSize() {
+			return 0x14 + asciizSize(getShareName())
+					+ asciizSize(getLocalShareMapping());
+		}
+
+		String toString(String indent) {
+			StringBuilder sb = new StringBuilder(128);
 			try {
-				size = 5
-						* 4
-						+ ((shareName != null) ? shareName.getBytes("US-ASCII").length + 1
-								: 0)
-						+ ((localShareMapping != null) ? localShareMapping
-								.getBytes("US-ASCII").length + 1 : 0);
-			} catch (Exception e) {
-				e.printStackTrace();
+				describeTo(sb, indent);
+			} catch (IOException e) {
+				throw new AssertionError(e);
 			}
-			return size;
+			return sb.toString();
 		}
 
-		String toString(String indent) {
+		public void describeTo(Appendable out, String indent)
+				throws IOException {
 			String ind = (indent == null) ? "" : indent;
-			String ls = System.getProperty("line.separator");
-			String s = "";
-			s = "NetworkVolumeTable:"
-					+ ls
-					+ ind
-					+ "length:"
-					+ length
-					+ ls
-					+ ind
-					+ "unknown0:"
-					+ unknown0
-					+ ls
-					+ ind
-					+ "offNS:"
-					+ offNS
-					+ ls
-					+ ind
-					+ "unknown1:"
-					+ unknown1
-					+ ls
-					+ ind
-					+ "unknown2:"
-					+ unknown2
-					+ ls
-					+ ((shareName != null) ? ind + "shareName:" + shareName
-							+ ls : "")
-					+ ((localShareMapping != null) ? ind + "localShareMapping:"
-							+ localShareMapping + ls : "");
-			return s;
+			out.append("NetworkVolumeTable:").append(LS).append(ind).append(
+					"length:");
+			appendNumber(out, length);
+			out.append(LS).append(ind).append("unknown0:");
+			appendNumber(out, unknown0);
+			out.append(LS).append(ind).append("offNS:");
+			appendNumber(out, offNS);
+			out.append(LS).append(ind).append("unknown1:");
+			appendNumber(out, unknown1);
+			out.append(LS).append(ind).append("unknown2:");
+			appendNumber(out, unknown2);
+			out.append(LS);
+			if (getShareName() != null)
+				out.append(ind).append("shareName:").append(getShareName())
+						.append(LS);
+			if (getLocalShareMapping() != null)
+				out.append(ind).append("localShareMapping:").append(
+						getLocalShareMapping()).append(LS);
 		}
 	}
 
 	public Shortcut() {
 		super();
-		shellItemIDList = new Vector<ShellItemID>();
+		shellItemIDList = new ShellItemIDList();
 		attributes =	A_NORMAL | A_OFFLINE;
 	}
+	/**
+	 * Restores the state of <code>new Shortcut()</code>. The id list, the
+	 * location info and the lazy string table are kept and refilled by the
+	 * next parse into this instance, see {@link ShortcutParser}.
+	 */
+	public void reset() {
+		flags = 0;
+		attributes = A_NORMAL | A_OFFLINE;
+		cTime = mTime = aTime = 0;
+		fileLength = 0;
+		iconID = 0;
+		showWnd = SW_NORMAL;
+		hotKey = 0;
+		unknown0 = 0;
+		if (shellItemIDList != null)
+			shellItemIDList.clear();
+		else
+			shellItemIDList = new ShellItemIDList();
+		if (fileLocationInfo != null) {
+			fileLocationInfo.recycle();
+			spareLocation = fileLocationInfo;
+			fileLocationInfo = null;
+		}
+		description = null;
+		relativePath = null;
+		workingDirectory = null;
+		commandLine = null;
+		iconFileName = null;
+		something = null;
+		unknown1 = 0;
+		if (extraData != null && extraData != ExtraData.NONE)
+			spareExtraData = extraData;
+		extraData = null;
+		extraStart = extraEnd = -1;
+		if (lazy != null)
+			lazy.reset(null);
+	}
+
 	public Shortcut(File relative) throws UnsupportedEncodingException{
 		this();
 		//this.relativePath = relative.getPath();
 		this.workingDirectory = relative.getParent();
-		shellItemIDList.add(new ShellItemID(shortToByte(_shit0CRoot0A)));
-		shellItemIDList.add(new ShellItemID(createRootSHID(this.workingDirectory)));
-		shellItemIDList.add(new ShellItemID(createFileSHID(relative.getName())));
+		shellItemIDList.add(shortToByte(_shit0CRoot0A));
+		shellItemIDList.add(createRootSHID(this.workingDirectory));
+		shellItemIDList.add(createFileSHID(relative.getName()));
 		
 	}
 	public Shortcut(File relative, File working){
@@ -458,65 +727,229 @@ public class Shortcut {
 		this.workingDirectory = workingDir;
 	}
 
+	public int getFlags() {
+		return flags;
+	}
+
+	public int getAttributes() {
+		return attributes;
+	}
+
+	public FileLocationInfo getFileLocationInfo() {
+		return fileLocationInfo;
+	}
+
+	public String getDescription() {
+		if (lazy != null && lazy.pending(LazyStrings.S_DESCRIPTION))
+			description = lazy.take(LazyStrings.S_DESCRIPTION);
+		return description;
+	}
+
+	public void setDescription(String description) {
+		if (lazy != null)
+			lazy.drop(LazyStrings.S_DESCRIPTION);
+		this.description = description;
+	}
+
+	public String getRelativePath() {
+		if (lazy != null && lazy.pending(LazyStrings.S_RELATIVE_PATH))
+			relativePath = lazy.take(LazyStrings.S_RELATIVE_PATH);
+		return relativePath;
+	}
+
+	public void setRelativePath(String relativePath) {
+		if (lazy != null)
+			lazy.drop(LazyStrings.S_RELATIVE_PATH);
+		this.relativePath = relativePath;
+	}
+
+	public String getWorkingDirectory() {
+		if (lazy != null && lazy.pending(LazyStrings.S_WORKING_DIRECTORY))
+			workingDirectory = lazy.take(LazyStrings.S_WORKING_DIRECTORY);
+		return workingDirectory;
+	}
+
+	public void setWorkingDirectory(String workingDirectory) {
+		if (lazy != null)
+			lazy.drop(LazyStrings.S_WORKING_DIRECTORY);
+		this.workingDirectory = workingDirectory;
+	}
+
+	public String getCommandLine() {
+		if (lazy != null && lazy.pending(LazyStrings.S_COMMAND_LINE))
+			commandLine = lazy.take(LazyStrings.S_COMMAND_LINE);
+		return commandLine;
+	}
+
+	public void setCommandLine(String commandLine) {
+		if (lazy != null)
+			lazy.drop(LazyStrings.S_COMMAND_LINE);
+		this.commandLine = commandLine;
+	}
+
+	public String getIconFileName() {
+		if (lazy != null && lazy.pending(LazyStrings.S_ICON_FILE_NAME))
+			iconFileName = lazy.take(LazyStrings.S_ICON_FILE_NAME);
+		return iconFileName;
+	}
+
+	public void setIconFileName(String iconFileName) {
+		if (lazy != null)
+			lazy.drop(LazyStrings.S_ICON_FILE_NAME);
+		this.iconFileName = iconFileName;
+	}
+
+	/**
+	 * The index of the extra data blocks. It is built by
+	 * {@link #extract(ByteBuffer, Set)} when {@link Section#EXTRA_DATA} is
+	 * asked for, and by a lazy parse on the first call. Other parses only
+	 * skip the blocks and this returns null.
+	 */
+	public ExtraData getExtraData() {
+		if (extraData == null && lazy != null && extraStart >= 0) {
+			ExtraData ed = ExtraData.NONE;
+			if (extraEnd > extraStart) {
+				ed = (spareExtraData != null) ? spareExtraData
+						: new ExtraData();
+				spareExtraData = null;
+				ed.clear();
+				ByteBuffer buff = lazy.source;
+				/* the blocks were checked by the parse */
+				for (int off = extraStart; off < extraEnd; off += getInt(buff,
+						off))
+					ed.add(off - extraStart, getInt(buff, off), getInt(buff,
+							off + 4));
+				ed.attach(buff, extraStart, extraEnd, true);
+			}
+			extraData = ed;
+		}
+		return extraData;
+	}
+
+	public String getSomething() {
+		if (lazy != null && lazy.pending(LazyStrings.S_SOMETHING))
+			something = lazy.take(LazyStrings.S_SOMETHING);
+		return something;
+	}
+
+	public void setSomething(String something) {
+		if (lazy != null)
+			lazy.drop(LazyStrings.S_SOMETHING);
+		this.something = something;
+	}
+
+	static final String LS = System.lineSeparator();
+
+	/* names by bit number */
+	static final String[] FLAG_NAMES = { "id_list;", "F_LOCATION;",
+			"description;", "relative_path;", "working_directory;",
+			"command_line;", "custom_icon;", "something;" };
+	static final String[] ATTRIBUTE_NAMES = { "A_READONLY;", "A_HIDDEN;",
+			"A_SYSTEM_FILE;", "A_VOLUME_LABES;", "A_DIRECTORY;", "A_MODIFIED;",
+			"A_ENCRYPTED;", "A_NORMAL;", "A_TEMPORARY;", "A_SPARSE;",
+			"A_REPARSE;", "A_COMPRESSED;", "A_OFFLINE;" };
+	/* by SW_ value */
+	static final String[] SHOW_WND_NAMES = { "SW_HIDE", "SW_NORMAL",
+			"SW_SHOWMINIMIZED", "SW_SHOWMAXIMIZED", "SW_SHOWNOACTIVATE",
+			"SW_SHOW", "SW_MINIMIZE", "SW_SHOWMINNOACTIVE", "SW_SHOWNA",
+			"SW_RESTORE", "SW_SHOWDEFAULT" };
+	/*
+	 * same text as Date.toString() from DATE_MIN on; before it Date switches
+	 * to the Julian calendar and local mean time, so it formats those itself.
+	 * The offset and zone name come from the TimeZone as in Date, java.time
+	 * names and far future rules differ for some zones.
+	 */
+	static final long DATE_MIN = -2208988800000L; // 1900-01-01T00:00Z
+	static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern(
+			"EEE MMM dd HH:mm:ss ", Locale.US);
+
 	static String describeFlags(int f) {
-		String s = "";
-		s = ((f & F_ID_LIST) > 0) ? s + "id_list;" : s;
-		s = ((f & F_LOCATION) > 0) ? s + "F_LOCATION;" : s;
-		s = ((f & F_DESCRIPTION) > 0) ? s + "description;" : s;
-		s = ((f & F_RELATIVE_PATH) > 0) ? s + "relative_path;" : s;
-		s = ((f & F_WORKING_DIRECTORY) > 0) ? s + "working_directory;" : s;
-		s = ((f & F_COMMAND_LINE) > 0) ? s + "command_line;" : s;
-		s = ((f & F_CUSTOM_ICON) > 0) ? s + "custom_icon;" : s;
-		s = ((f & F_SOMETHING) > 0) ? s + "something;" : s;
-		return s;
+		StringBuilder sb = new StringBuilder();
+		try {
+			describeBits(f, FLAG_NAMES, sb);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return sb.toString();
 	}
 
 	static String describeAttributes(int a) {
-		String s = "";
-		s = ((a & A_READONLY) > 0) ? s + "A_READONLY;" : s;
-		s = ((a & A_HIDDEN) > 0) ? s + "A_HIDDEN;" : s;
-		s = ((a & A_SYSTEM_FILE) > 0) ? s + "A_SYSTEM_FILE;" : s;
-		s = ((a & A_VOLUME_LABES) > 0) ? s + "A_VOLUME_LABES;" : s;
-		s = ((a & A_DIRECTORY) > 0) ? s + "A_DIRECTORY;" : s;
-		s = ((a & A_MODIFIED) > 0) ? s + "A_MODIFIED;" : s;
-		s = ((a & A_ENCRYPTED) > 0) ? s + "A_ENCRYPTED;" : s;
-		s = ((a & A_NORMAL) > 0) ? s + "A_NORMAL;" : s;
-		s = ((a & A_TEMPORARY) > 0) ? s + "A_TEMPORARY;" : s;
-		s = ((a & A_SPARSE) > 0) ? s + "A_SPARSE;" : s;
-		s = ((a & A_REPARSE) > 0) ? s + "A_REPARSE;" : s;
-		s = ((a & A_COMPRESSED) > 0) ? s + "A_COMPRESSED;" : s;
-		s = ((a & A_OFFLINE) > 0) ? s + "A_OFFLINE;" : s;
-		return s;
+		StringBuilder sb = new StringBuilder();
+		try {
+			describeBits(a, ATTRIBUTE_NAMES, sb);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return sb.toString();
 	}
 
 	static String describeShowWnd(int sw) {
-		if (sw == SW_HIDE)
-			return "SW_HIDE";
-		else if (sw == SW_NORMAL)
-			return "SW_NORMAL";
-		else if (sw == SW_SHOWMINIMIZED)
-			return "SW_SHOWMINIMIZED";
-		else if (sw == SW_SHOWMAXIMIZED)
-			return "SW_SHOWMAXIMIZED";
-		else if (sw == SW_SHOWNOACTIVATE)
-			return "SW_SHOWNOACTIVATE";
-		else if (sw == SW_SHOW)
-			return "SW_SHOW";
-		else if (sw == SW_MINIMIZE)
-			return "SW_MINIMIZE";
-		else if (sw == SW_SHOWMINNOACTIVE)
-			return "SW_SHOWMINNOACTIVE";
-		else if (sw == SW_SHOWNA)
-			return "SW_SHOWNA";
-		else if (sw == SW_RESTORE)
-			return "SW_RESTORE";
-		else if (sw == SW_SHOWDEFAULT)
-			return "SW_SHOWDEFAULT";
+		if (sw >= 0 && sw < SHOW_WND_NAMES.length)
+			return SHOW_WND_NAMES[sw];
 		else
 			return "UNKNOWN(" + Integer.toString(sw) + ")";
 
 	}
 
+	static void describeFlags(int f, Appendable out) throws IOException {
+		describeBits(f, FLAG_NAMES, out);
+	}
+
+	static void describeAttributes(int a, Appendable out) throws IOException {
+		describeBits(a, ATTRIBUTE_NAMES, out);
+	}
+
+	static void describeShowWnd(int sw, Appendable out) throws IOException {
+		if (sw >= 0 && sw < SHOW_WND_NAMES.length)
+			out.append(SHOW_WND_NAMES[sw]);
+		else {
+			out.append("UNKNOWN(");
+			appendNumber(out, sw);
+			out.append(')');
+		}
+	}
+
+	static void describeBits(int bits, String[] names, Appendable out)
+			throws IOException {
+		for (int i = 0; i < names.length; i++)
+			if ((bits & (1 << i)) != 0)
+				out.append(names[i]);
+	}
+
+	static void appendNumber(Appendable out, long v) throws IOException {
+		if (out instanceof StringBuilder)
+			((StringBuilder) out).append(v);
+		else
+			out.append(Long.toString(v));
+	}
+
+	static void appendDate(Appendable out, long millis) throws IOException {
+		if (millis < DATE_MIN) {
+			out.append(new Date(millis).toString());
+			return;
+		}
+		TimeZone tz = TimeZone.getDefault();
+		OffsetDateTime t = Instant.ofEpochMilli(millis).atOffset(
+				ZoneOffset.ofTotalSeconds(tz.getOffset(millis) / 1000));
+		try {
+			DATE.formatTo(t, out);
+		} catch (DateTimeException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		}
+		out.append(tz.getDisplayName(tz.inDaylightTime(new Date(millis)),
+				TimeZone.SHORT, Locale.US));
+		out.append(' ');
+		appendNumber(out, t.getYear());
+	}
+
+	static void describeString(Appendable out, String name, String value)
+			throws IOException {
+		if (value != null)
+			out.append(name).append(value).append(LS);
+	}
+
 	static boolean byteMatch(byte[] pat, byte[] in, int idx) {
 		if ((idx + pat.length) > in.length)
 			return false;
@@ -528,6 +961,77 @@ public class Shortcut {
 		return true;
 	}
 
+	static boolean byteMatch(byte[] pat, ByteBuffer in, int idx) {
+		if ((idx + pat.length) > in.limit())
+			return false;
+		for (int i = 0; i < pat.length; i++)
+			if (pat[i] != in.get(i + idx))
+				return false;
+		return true;
+	}
+
+	static void checkRange(ByteBuffer in, int idx, int len) {
+		if (idx < 0 || len < 0 || idx > in.limit() - len)
+			throw new IndexOutOfBoundsException("range " + idx + "+" + len
+					+ " outside of " + in.limit() + " bytes");
+	}
+
+	/* single byte string in the platform charset, as new String(byte[]) */
+	static String getString(ByteBuffer in, int idx, int len) {
+		checkRange(in, idx, len);
+		if (in.hasArray())
+			return new String(in.array(), in.arrayOffset() + idx, len);
+		char[] out = new char[len];
+		for (int i = 0; i < len; i++) {
+			byte b = in.get(idx + i);
+			if (b < 0) {
+				byte[] raw = new byte[len];
+				in.get(idx, raw);
+				return new String(raw);
+			}
+			out[i] = (char) b;
+		}
+		return new String(out);
+	}
+
+	/* single byte string of <code>len</code> bytes, shared through pool */
+	static String getString(ByteBuffer in, int idx, int len, StringPool pool) {
+		if (pool != null)
+			return pool.get(in, idx, len, false);
+		return getString(in, idx, len);
+	}
+
+	/* UTF-16LE string of <code>chars</code> characters, shared through pool */
+	static String getUString(ByteBuffer in, int idx, int chars,
+			StringPool pool) {
+		if (pool != null)
+			return pool.get(in, idx, chars * 2, true);
+		return getUString(in, idx, chars);
+	}
+
+	static String getUString(ByteBuffer in, int idx, int chars) {
+		checkRange(in, idx, chars * 2);
+		if (in.hasArray())
+			return new String(in.array(), in.arrayOffset() + idx, chars * 2,
+					StandardCharsets.UTF_16LE);
+		char[] out = new char[chars];
+		for (int i = 0; i < chars; i++)
+			out[i] = LittleEndian.getChar(in, idx + 2 * i);
+		return new String(out);
+	}
+
+	static short getShort(ByteBuffer in, int idx) {
+		return LittleEndian.getShort(in, idx);
+	}
+
+	static int getInt(ByteBuffer in, int idx) {
+		return LittleEndian.getInt(in, idx);
+	}
+
+	static long getLong(ByteBuffer in, int idx) {
+		return LittleEndian.getLong(in, idx);
+	}
+
 	static byte[] subarray(byte[] in, int idx, int len) {
 		byte[] out = new byte[len];
 		for (int i = 0; i < len; i++)
@@ -536,21 +1040,11 @@ public class Shortcut {
 	}
 
 	static String hexDump(byte[] in) {
-		String out = new String("");
-		for (int i = 0; i < in.length; i++)
-			if((i%8)==0&&i!=0)
-				out += String.format("\n0x%02X, ", in[i] & 0xff);
-			else
-				out += String.format("0x%02X, ", in[i] & 0xff);
-		return out;
+		return HexDump.DEFAULT.hex(in);
 	}
 
 	static String asciiDump(byte[] in) {
-		String out = new String("");
-		for (int i = 0; i < in.length; i++)
-			out += ((in[i] & 0xFF) == 0) ? '_' : (char) (in[i] & 0xFF);
-		// out += (char);
-		return out;
+		return HexDump.LINE.ascii(in);
 	}
 	static int copyUString(byte[] out, byte[]in, int idx){
 		setShort(out, idx, (short)(in.length/2));
@@ -564,64 +1058,345 @@ public class Shortcut {
 	}
 
 	static short getShort(byte[] in, int idx) {
-		short out = 0;
-		for (int i = 0; i < 2; i++)
-			out |= ((short) in[idx + i] & 0xff) << i * 8;
-		return out;
+		return LittleEndian.getShort(in, idx);
 	}
 	static int setShort(byte[] out, int idx, short val) {
-		for (int i = 0; i < 2; i++)
-			out[idx + i] = (byte) ((val >> i * 8) & 0xff);
-		return 2;
+		return LittleEndian.setShort(out, idx, val);
 	}
 
 	static int getInt(byte[] in, int idx) {
-		int out = 0;
-		for (int i = 0; i < 4; i++)
-			out |= ((int) in[idx + i] & 0xff) << i * 8;
-		return out;
+		return LittleEndian.getInt(in, idx);
 	}
 
 	static int setInt(byte[] out, int idx, int val) {
-		for (int i = 0; i < 4; i++)
-			out[idx + i] = (byte) ((val >> i * 8) & 0xff);
-		return 4;
+		return LittleEndian.setInt(out, idx, val);
 	}
 
 	static long getLong(byte[] in, int idx) {
-		long out = 0;
-		for (int i = 0; i < 8; i++)
-			out |= ((long) in[idx + i] & 0xff) << i * 8;
-		return out;
+		return LittleEndian.getLong(in, idx);
 	}
 	static int setLong(byte[] out, int idx, long val) {
-		for (int i = 0; i < 8; i++)
-			out[idx + i] = (byte) ((val >> i * 8) & 0xff);
-		return 8;
+		return LittleEndian.setLong(out, idx, val);
 	}
 
 
 	static public Shortcut loadShortcut(File shortcutFile) throws IOException,
 			MalformedShortcutException {
-		Shortcut scut = new Shortcut();
-		FileInputStream fis = new FileInputStream(shortcutFile);
-		int len = fis.available();
-		byte[] buff = new byte[len];
-		int rlen = fis.read(buff);
-		fis.close();
-		if (rlen != len)
-			throw new IOException("error ocurred while reading file: "
-					+ shortcutFile.getAbsolutePath());
-		if (!byteMatch(_headerEl, buff, 0x00))
-			throw new MalformedShortcutException("bad header");
-		if (!byteMatch(_headerGUID, buff, 0x04))
-			throw new MalformedShortcutException("bad GUID");
+		return loadShortcut(shortcutFile, null);
+	}
+
+	static public Shortcut loadShortcut(File shortcutFile, ShortcutTrace trace)
+			throws IOException, MalformedShortcutException {
+		return loadShortcut(shortcutFile.toPath(), trace);
+	}
+
+	static public Shortcut loadShortcut(Path shortcutFile) throws IOException,
+			MalformedShortcutException {
+		return loadShortcut(shortcutFile, null);
+	}
+
+	static public Shortcut loadShortcut(Path shortcutFile, ShortcutTrace trace)
+			throws IOException, MalformedShortcutException {
+		return parse(ShortcutIO.read(shortcutFile), trace);
+	}
+
+	/**
+	 * Reads and validates only the fixed header of the file, the rest is not
+	 * read at all.
+	 */
+	static public ShortcutHeader readHeader(Path shortcutFile)
+			throws IOException, MalformedShortcutException {
+		return readHeader(ShortcutIO.readHead(shortcutFile, HEADER_SIZE));
+	}
+
+	/**
+	 * Header of the shortcut starting at the buffer's position, which is not
+	 * changed.
+	 */
+	static public ShortcutHeader readHeader(ByteBuffer buff)
+			throws MalformedShortcutException {
+		ByteBuffer head = buff.slice();
+		if (head.limit() < HEADER_SIZE)
+			throw new MalformedShortcutException("truncated header, "
+					+ head.limit() + " bytes");
+		checkHeader(head);
+		return new ShortcutHeader(head);
+	}
+
+	/**
+	 * Files of at least <code>threshold</code> bytes are memory-mapped by
+	 * {@link #loadShortcut(Path)} instead of being read into a buffer.
+	 */
+	static public void setMapThreshold(long threshold) {
+		ShortcutIO.mapThreshold = threshold;
+	}
+
+	/**
+	 * Parses the shortcut held in <code>length</code> bytes of
+	 * <code>buff</code> starting at <code>offset</code>. Fields are decoded
+	 * straight from the array, nothing is copied beforehand.
+	 */
+	static public Shortcut parse(byte[] buff, int offset, int length)
+			throws MalformedShortcutException {
+		return parse(ByteBuffer.wrap(buff, offset, length), null);
+	}
+
+	/**
+	 * Parses the shortcut between the buffer's position and limit. The
+	 * position of <code>buff</code> is not changed and its byte order does not
+	 * matter.
+	 */
+	static public Shortcut parse(ByteBuffer buff)
+			throws MalformedShortcutException {
+		return parse(buff, null);
+	}
+
+	/**
+	 * Like {@link #parse(ByteBuffer)}, but strings are decoded by their
+	 * getters on first use. The shortcut keeps a reference to
+	 * <code>buff</code>, whose content must not change until then.
+	 */
+	static public Shortcut parseLazy(ByteBuffer buff)
+			throws MalformedShortcutException {
+		return parse(buff, null, true);
+	}
+
+	/**
+	 * Like {@link #parse(ByteBuffer)}, but every length and offset is checked
+	 * against the bounds of its enclosing structure before use and the file
+	 * may not exceed <code>limits</code>. Any violation is reported as a
+	 * {@link MalformedShortcutException} with a
+	 * {@link MalformedShortcutException#getReason() reason} and the offset of
+	 * the offending field.
+	 */
+	static public Shortcut parseStrict(ByteBuffer buff, ShortcutLimits limits)
+			throws MalformedShortcutException {
+		if (limits == null)
+			throw new NullPointerException("limits");
+		return parse(new Shortcut(), buff, null, false, -1, null, limits);
+	}
+
+	static public Shortcut parseLazy(byte[] buff, int offset, int length)
+			throws MalformedShortcutException {
+		return parse(ByteBuffer.wrap(buff, offset, length), null, true);
+	}
+
+	/**
+	 * Loads the file into a private array and parses it lazily, see
+	 * {@link #parseLazy(ByteBuffer)}.
+	 */
+	static public Shortcut loadShortcutLazy(Path shortcutFile)
+			throws IOException, MalformedShortcutException {
+		return load(shortcutFile, true, null, null);
+	}
+
+	/**
+	 * Loads the file and parses it with {@link #parseStrict(ByteBuffer,
+	 * ShortcutLimits)}. Files longer than <code>limits</code> allow are
+	 * rejected before they are read.
+	 */
+	static public Shortcut loadShortcutStrict(Path shortcutFile,
+			ShortcutLimits limits) throws IOException,
+			MalformedShortcutException {
+		return load(shortcutFile, false, null, limits);
+	}
+
+	static Shortcut load(Path shortcutFile, boolean lazy, StringPool pool,
+			ShortcutLimits limits) throws IOException,
+			MalformedShortcutException {
+		if (limits != null) {
+			long size = Files.size(shortcutFile);
+			require(size <= limits.maxBytes, Reason.LIMIT_EXCEEDED, 0,
+					"file of " + size + " bytes");
+		}
+		ByteBuffer src = ShortcutIO.read(shortcutFile);
+		if (lazy) {
+			byte[] buff = new byte[src.remaining()];
+			src.get(buff);
+			src = ByteBuffer.wrap(buff);
+		}
+		return parse(new Shortcut(), src, null, lazy, -1, pool, limits);
+	}
+
+	/**
+	 * Parses the header and only the requested sections, the others are
+	 * skipped by their length without being decoded and their fields stay
+	 * null. Nothing after the last requested section is looked at. The flags
+	 * still describe the whole file.
+	 */
+	static public Shortcut extract(ByteBuffer buff, Set<Section> sections)
+			throws MalformedShortcutException {
+		return parse(buff, null, false, Section.mask(sections));
+	}
+
+	/**
+	 * Like {@link #extract(ByteBuffer, Set)}, reading the file only up to the
+	 * end of the last requested section.
+	 */
+	static public Shortcut extract(Path shortcutFile, Set<Section> sections)
+			throws IOException, MalformedShortcutException {
+		int want = Section.mask(sections);
+		if ((want & W_EXTRA_DATA) != 0)
+			return parse(ShortcutIO.read(shortcutFile), null, false, want);
+		ShortcutIO.Prefix in = new ShortcutIO.Prefix(shortcutFile);
+		try {
+			in.need(HEADER_SIZE);
+			if (in.data().limit() >= HEADER_SIZE) {
+				int flags = getInt(in.data(), 0x14);
+				int offset = HEADER_SIZE;
+				for (int f = F_ID_LIST; (want & -f) != 0; f <<= 1) {
+					if ((flags & f) == 0)
+						continue;
+					int prefix = (f == F_LOCATION) ? 4 : 2;
+					in.need(offset + prefix);
+					if (in.data().limit() < offset + prefix)
+						break;
+					/* a corrupt length must not size the buffer */
+					int len = sectionLength(in.data(), f, offset);
+					require(len >= 0, Reason.BAD_LENGTH, offset, "section of "
+							+ len + " bytes");
+					require(len <= in.size - offset, Reason.TRUNCATED,
+							offset, "section of " + len + " bytes in a file of "
+									+ in.size + " bytes");
+					offset += len;
+					in.need(offset);
+				}
+			}
+			return parse(in.data(), null, false, want);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Full path of the link target: the location info base path joined with
+	 * the remaining path, or the share name for network links, else the
+	 * relative path. Needs {@link Section#LOCATION} and
+	 * {@link Section#RELATIVE_PATH} when extracted.
+	 */
+	public String getTargetPath() {
+		FileLocationInfo fli = fileLocationInfo;
+		if (fli != null) {
+			String path = fli.localPath();
+			if (path == null)
+				path = fli.networkPath();
+			if (path != null)
+				return path;
+		}
+		return getRelativePath();
+	}
+
+	/*
+	 * bytes taken by the section announced by flag f at offset
+	 */
+	static int sectionLength(ByteBuffer buff, int f, int offset) {
+		switch (f) {
+		case F_ID_LIST:
+		case F_SOMETHING:
+			return (getShort(buff, offset) & 0xFFFF) + 2;
+		case F_LOCATION:
+			return getInt(buff, offset);
+		default:
+			return 2 * (getShort(buff, offset) & 0xFFFF) + 2;
+		}
+	}
+
+	static Shortcut parse(ByteBuffer src, ShortcutTrace trace)
+			throws MalformedShortcutException {
+		return parse(src, trace, false);
+	}
+
+	static Shortcut parse(ByteBuffer src, ShortcutTrace trace, boolean lazy)
+			throws MalformedShortcutException {
+		return parse(src, trace, lazy, -1);
+	}
+
+	/*
+	 * want holds the flags of the sections to decode, -1 also walks the extra
+	 * data after them without indexing it
+	 */
+	static Shortcut parse(ByteBuffer src, ShortcutTrace trace, boolean lazy,
+			int want) throws MalformedShortcutException {
+		return parse(new Shortcut(), src, trace, lazy, want, null, null);
+	}
+
+	/*
+	 * pool, when not null, supplies the repeating strings
+	 */
+	static Shortcut parse(Shortcut into, ByteBuffer src, ShortcutTrace trace,
+			boolean lazy, int want, StringPool pool, ShortcutLimits limits)
+			throws MalformedShortcutException {
+		ByteBuffer buff = src.slice();
+		try {
+			return parseSlice(into, buff, trace, lazy, want, pool, limits);
+		} catch (IndexOutOfBoundsException e) {
+			throw new MalformedShortcutException(Reason.TRUNCATED, -1,
+					"truncated shortcut, " + buff.limit() + " bytes", e);
+		}
+	}
+
+	/*
+	 * strict parsing: fails unless ok
+	 */
+	static void require(boolean ok, Reason reason, int offset, String what)
+			throws MalformedShortcutException {
+		if (!ok)
+			throw new MalformedShortcutException(reason, offset, what);
+	}
+
+	/* strict check of the counted UTF-16 string at offset */
+	static void checkUString(ByteBuffer buff, int offset,
+			ShortcutLimits limits, String what)
+			throws MalformedShortcutException {
+		require(within(offset, 2, buff.limit()), Reason.TRUNCATED, offset, what
+				+ " length");
+		int len = getShort(buff, offset) & 0xFFFF;
+		require(len <= limits.maxStringChars, Reason.LIMIT_EXCEEDED, offset,
+				what + " of " + len + " characters");
+		require(within(offset + 2, 2 * len, buff.limit()), Reason.TRUNCATED,
+				offset, what + " of " + len + " characters");
+	}
+
+	/* len bytes at off lie within [0, end) */
+	static boolean within(int off, int len, int end) {
+		return off >= 0 && len >= 0 && off <= end - len;
+	}
+
+	static void checkHeader(ByteBuffer buff) throws MalformedShortcutException {
+		require(byteMatch(_headerEl, buff, 0x00), Reason.BAD_HEADER, 0x00,
+				"bad header");
+		require(byteMatch(_headerGUID, buff, 0x04), Reason.BAD_HEADER, 0x04,
+				"bad GUID");
+	}
+
+	/*
+	 * scut is new or reset, its id list, location info and lazy strings are
+	 * filled in place when present
+	 */
+	static Shortcut parseSlice(Shortcut scut, ByteBuffer buff,
+			ShortcutTrace trace, boolean lazy, int want, StringPool pool,
+			ShortcutLimits limits) throws MalformedShortcutException {
+		int end = buff.limit();
+		if (limits != null) {
+			require(end <= limits.maxBytes, Reason.LIMIT_EXCEEDED, 0,
+					"shortcut of " + end + " bytes");
+			require(end >= HEADER_SIZE, Reason.TRUNCATED, 0,
+					"header of " + end + " bytes");
+		}
+		LazyStrings ls = null;
+		if (lazy) {
+			ls = scut.lazy;
+			if (ls != null)
+				ls.reset(buff);
+			else
+				ls = new LazyStrings(buff);
+			ls.pool = pool;
+		}
+		scut.lazy = ls;
+		int len;
+		checkHeader(buff);
 		scut.flags = getInt(buff, 0x14);
-		System.out.println(hexDump(subarray(buff, 0x14, 4)));
-		// scut.flags = getInt(buff, 0x14);
-		System.out.println(describeFlags(scut.flags));
 		scut.attributes = getInt(buff, 0x18);
-		System.out.println("attrib " + describeAttributes(scut.attributes));
 		scut.cTime = getLong(buff, 0x1C);
 		scut.mTime = getLong(buff, 0x24);
 		scut.aTime = getLong(buff, 0x2C);
@@ -630,20 +1405,42 @@ public class Shortcut {
 		scut.showWnd = getInt(buff, 0x3C);
 		scut.hotKey = getInt(buff, 0x40);
 		scut.unknown0 = getLong(buff, 0x44);
+		if (trace != null)
+			trace.header(scut.flags, scut.attributes);
 
-		int offset = 0x4C;
+		int offset = HEADER_SIZE;
+		/* (want & -F) != 0: a section from F on is still wanted */
+		if ((want & F_ID_LIST) == 0)
+			scut.shellItemIDList = null;
+		if ((want & -F_ID_LIST) == 0)
+			return scut;
 		if ((scut.flags & F_ID_LIST) > 0) {
+			require(within(offset, 2, end), Reason.TRUNCATED, offset,
+					"ShellItemIdList length");
 			len = getShort(buff, offset) & 0xFFFF;
-			scut.shellItemIDList = parseShellItemIDList(buff, offset);
-			System.out.println("shIdList len " + len);
+			if ((want & F_ID_LIST) != 0)
+				scut.shellItemIDList = parseShellItemIDList(buff, offset, trace,
+						scut.shellItemIDList, limits);
+			if (trace != null)
+				trace.section("shellItemIDList", offset, len + 2);
 			offset += len + 2;
-			 for (ShellItemID shid : scut.shellItemIDList)
-			 System.out.println(shid.toString());
-
 		}
+		if ((want & -F_LOCATION) == 0)
+			return scut;
 		if ((scut.flags & F_LOCATION) > 0) {
+			if (limits != null)
+				require(within(offset, 4, end), Reason.TRUNCATED, offset,
+						"FileLocationInfo length");
 			len = getInt(buff, offset);
-			scut.fileLocationInfo = parseFileLocationInfo(buff, offset);
+			if (limits != null)
+				require(len >= 0x1C && within(offset, len, end),
+						Reason.BAD_LENGTH, offset, "FileLocationInfo of " + len
+								+ " bytes");
+			if ((want & F_LOCATION) != 0)
+				scut.fileLocationInfo = parseFileLocationInfo(buff, offset, ls,
+						scut.spareLocation, pool, limits);
+			if (trace != null)
+				trace.section("fileLocationInfo", offset, len);
 			/*
 			 * System.out.println("offset " + Integer.toHexString(offset));
 			 * System.out.println("len " + Integer.toString(len));
@@ -653,59 +1450,162 @@ public class Shortcut {
 			 */
 			offset += len;
 		}
+		if ((want & -F_DESCRIPTION) == 0)
+			return scut;
 		if ((scut.flags & F_DESCRIPTION) > 0) {
+			if (limits != null)
+				checkUString(buff, offset, limits, "description");
 			len = getShort(buff, offset) & 0xFFFF;
-			scut.description = new String(subarray(buff, offset + 2, len * 2),
-					"UTF-16LE");
-			System.out.println("description " + scut.description);
+			if ((want & F_DESCRIPTION) != 0) {
+				if (ls != null)
+					ls.set(LazyStrings.S_DESCRIPTION, offset + 2, len, true);
+				else
+					scut.description = getUString(buff, offset + 2, len);
+			}
+			if (trace != null)
+				trace.section("description", offset, 2 * len + 2);
 			offset += 2 * len + 2;
 		}
+		if ((want & -F_RELATIVE_PATH) == 0)
+			return scut;
 		if ((scut.flags & F_RELATIVE_PATH) > 0) {
+			if (limits != null)
+				checkUString(buff, offset, limits, "relativePath");
 			len = getShort(buff, offset) & 0xFFFF;
-			scut.relativePath = new String(subarray(buff, offset + 2, len * 2),
-					"UTF-16LE");
-			System.out.println("relative " + scut.relativePath);
+			if ((want & F_RELATIVE_PATH) != 0) {
+				if (ls != null)
+					ls.set(LazyStrings.S_RELATIVE_PATH, offset + 2, len, true);
+				else
+					scut.relativePath = getUString(buff, offset + 2, len);
+			}
+			if (trace != null)
+				trace.section("relativePath", offset, 2 * len + 2);
 			offset += 2 * len + 2;
 		}
+		if ((want & -F_WORKING_DIRECTORY) == 0)
+			return scut;
 		if ((scut.flags & F_WORKING_DIRECTORY) > 0) {
+			if (limits != null)
+				checkUString(buff, offset, limits, "workingDirectory");
 			len = getShort(buff, offset) & 0xFFFF;
-			scut.workingDirectory = new String(subarray(buff, offset + 2,
-					len * 2), "UTF-16LE");
-			System.out.println("working " + scut.workingDirectory);
+			if ((want & F_WORKING_DIRECTORY) != 0) {
+				if (ls != null)
+					ls.set(LazyStrings.S_WORKING_DIRECTORY, offset + 2, len, true);
+				else
+					scut.workingDirectory = getUString(buff, offset + 2, len,
+							pool);
+			}
+			if (trace != null)
+				trace.section("workingDirectory", offset, 2 * len + 2);
 			offset += 2 * len + 2;
 		}
+		if ((want & -F_COMMAND_LINE) == 0)
+			return scut;
 		if ((scut.flags & F_COMMAND_LINE) > 0) {
+			if (limits != null)
+				checkUString(buff, offset, limits, "commandLine");
 			len = getShort(buff, offset) & 0xFFFF;
-			scut.commandLine = new String(subarray(buff, offset + 2, len * 2),
-					"UTF-16LE");
-			System.out.println("command line " + scut.commandLine);
+			if ((want & F_COMMAND_LINE) != 0) {
+				if (ls != null)
+					ls.set(LazyStrings.S_COMMAND_LINE, offset + 2, len, true);
+				else
+					scut.commandLine = getUString(buff, offset + 2, len);
+			}
+			if (trace != null)
+				trace.section("commandLine", offset, 2 * len + 2);
 			offset += 2 * len + 2;
 		}
+		if ((want & -F_CUSTOM_ICON) == 0)
+			return scut;
 		if ((scut.flags & F_CUSTOM_ICON) > 0) {
+			if (limits != null)
+				checkUString(buff, offset, limits, "iconFileName");
 			len = getShort(buff, offset) & 0xFFFF;
-			scut.iconFileName = new String(subarray(buff, offset + 2, len * 2),
-					"UTF-16LE");
-			System.out.println("working " + scut.iconFileName);
+			if ((want & F_CUSTOM_ICON) != 0) {
+				if (ls != null)
+					ls.set(LazyStrings.S_ICON_FILE_NAME, offset + 2, len, true);
+				else
+					scut.iconFileName = getUString(buff, offset + 2, len);
+			}
+			if (trace != null)
+				trace.section("iconFileName", offset, 2 * len + 2);
 			offset += 2 * len + 2;
 		}
+		if ((want & -F_SOMETHING) == 0)
+			return scut;
+		/* 'something' is the start of the first extra data block */
+		int extra = offset;
 		if ((scut.flags & F_SOMETHING) > 0) {
+			if (limits != null)
+				require(within(offset, 2, end), Reason.TRUNCATED, offset,
+						"something length");
 			len = getShort(buff, offset) & 0xFFFF;
-			System.out.println(len + " " + (buff.length - (offset + 2)));
-			System.out.println(Integer.toHexString(offset));
-			// System.out.println(Integer.toBinaryString(scut.flags));
-			if (len > 0x10) {
-				scut.something = new String(subarray(buff, offset + 0x10,
-						len - 0x10));// buff.length-(offset+0x10+2)));//,
+			if (limits != null)
+				require(within(offset, len + 2, end), Reason.TRUNCATED, offset,
+						"something of " + len + " bytes");
+			if (len > 0x10 && (want & F_SOMETHING) != 0) {
+				if (ls != null)
+					ls.set(LazyStrings.S_SOMETHING, offset + 0x10, len - 0x10,
+							false);
+				else
+					scut.something = getString(buff, offset + 0x10,
+							len - 0x10);// buff.length-(offset+0x10+2)));//,
 				// "UTF-16LE");
-				System.out.println("something:" + scut.something);
 			}
+			if (trace != null)
+				trace.section("something", offset, len + 2);
 			offset += len + 2;
 		}
+		if ((want & W_EXTRA_DATA) == 0)
+			return scut;
+		/*
+		 * only an explicit request builds the index, and only shortcuts that
+		 * have blocks get their own
+		 */
+		boolean index = want != -1;
+		ExtraData ed = ExtraData.NONE;
+		int blocks = 0;
+		offset = extra;
 		while (true) {
-			len = getShort(buff, offset) & 0xFFFF;
-			offset += len + 2;
-			if (len == 0)
+			if (!within(offset, 4, end)) {
+				/* a missing terminal block is only tolerated when lenient */
+				require(limits == null, Reason.TRUNCATED, offset,
+						"missing terminal block");
 				break;
+			}
+			len = getInt(buff, offset);
+			if (len >= 0 && len < 4) {
+				if (trace != null)
+					trace.extraData(offset, 4);
+				break;
+			}
+			require(len >= 8, Reason.BAD_LENGTH, offset, "extra data block of "
+					+ len + " bytes");
+			require(within(offset, len, end), Reason.TRUNCATED, offset,
+					"extra data block of " + len + " bytes");
+			if (limits != null)
+				require(blocks < limits.maxExtraBlocks,
+						Reason.LIMIT_EXCEEDED, offset, "more than "
+								+ limits.maxExtraBlocks + " extra data blocks");
+			blocks++;
+			if (index && ed == ExtraData.NONE) {
+				ed = (scut.spareExtraData != null) ? scut.spareExtraData
+						: new ExtraData();
+				scut.spareExtraData = null;
+				ed.clear();
+			}
+			if (index)
+				ed.add(offset - extra, len, getInt(buff, offset + 4));
+			if (trace != null)
+				trace.extraData(offset, len);
+			offset += len;
+		}
+		scut.extraStart = extra;
+		scut.extraEnd = offset;
+		if (index) {
+			if (ed != ExtraData.NONE)
+				ed.attach(buff, extra, offset, lazy);
+			scut.extraData = ed;
 		}
 		/*
 		System.out.println(describeShowWnd(scut.showWnd));
@@ -716,214 +1616,176 @@ public class Shortcut {
 		return scut;
 	}
 
-	static Vector<ShellItemID> parseShellItemIDList(byte[] buff, int off)
+	static ShellItemIDList parseShellItemIDList(ByteBuffer buff, int off)
+			throws MalformedShortcutException {
+		return parseShellItemIDList(buff, off, null);
+	}
+
+	/*
+	 * validates the item sizes, then copies all records at once
+	 */
+	static ShellItemIDList parseShellItemIDList(ByteBuffer buff, int off,
+			ShortcutTrace trace) throws MalformedShortcutException {
+		return parseShellItemIDList(buff, off, trace, null, null);
+	}
+
+	static ShellItemIDList parseShellItemIDList(ByteBuffer buff, int off,
+			ShortcutTrace trace, ShellItemIDList into, ShortcutLimits limits)
 			throws MalformedShortcutException {
-		Vector<ShellItemID> shv = new Vector<ShellItemID>();
+		require(within(off, 2, buff.limit()), Reason.TRUNCATED, off,
+				"ShellItemIdList length");
 		int tlen = getShort(buff, off) & 0xFFFF;
+		/* every item has to end inside the list, so the walk is bounded */
+		require(within(off, tlen + 2, buff.limit()), Reason.TRUNCATED, off,
+				"ShellItemIdList of " + tlen + " bytes");
+		int maxItems = (limits != null) ? limits.maxItems : Integer.MAX_VALUE;
 		int of = 2;
+		int count = 0;
 		while (true) {
+			require(of <= tlen, Reason.BAD_LENGTH, off + of,
+					"ShellItemIdList item past the list");
 			int len = getShort(buff, off + of) & 0xFFFF;
-			if ((len + off) > buff.length)
-				throw new MalformedShortcutException(
-						"malformed ShiellItemIdList");
 			if (len == 0) {
-				if (of != tlen)
-					throw new MalformedShortcutException(
-							"malformed ShiellItemIdList");
+				require(of == tlen, Reason.BAD_LENGTH, off + of,
+						"ShellItemIdList terminator");
 				break;
-			} else
-				shv.add(new ShellItemID(subarray(buff, off + of+2, len-2)));
+			} else {
+				require(len >= 2 && of + len <= tlen, Reason.BAD_LENGTH, off
+						+ of, "ShellItemIdList item of " + len + " bytes");
+				require(count < maxItems, Reason.LIMIT_EXCEEDED, off + of,
+						"more than " + maxItems + " ShellItemIdList items");
+				if (trace != null)
+					trace.shellItem(count, off + of, len);
+				count++;
+			}
 			of += len;
 		}
-		return shv;
+		if (into == null) {
+			byte[] data = new byte[of - 2];
+			buff.get(off + 2, data);
+			return new ShellItemIDList(data, data.length, count);
+		}
+		into.load(buff, off + 2, of - 2, count);
+		return into;
 	}
 
 	
 
 	
-	int byteSize() {
-		int size = 0;
-		try {
-			size = 7
-					* 4
-					+ 4
-					* 8
-					+ fileLocationInfo.getBytes().length
-					+ ((description != null) ? description.getBytes("UTF-16LE").length
-							: 0)
-					+ ((relativePath != null) ? relativePath
-							.getBytes("UTF-16LE").length : 0)
-					+ ((workingDirectory != null) ? workingDirectory
-							.getBytes("UTF-16LE").length : 0)
-					+ ((commandLine != null) ? commandLine.getBytes("UTF-16LE").length
-							: 0)
-					+ ((iconFileName != null) ? iconFileName
-							.getBytes("UTF-16LE").length : 0);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		return size;
+	/**
+	 * Exact size of the output of {@link #writeTo(OutputStream)}, computed
+	 * without serializing. Pending lazy UTF-16 strings are not decoded.
+	 */
+	public int byteSize() {
+		int size = HEADER_SIZE;
+		if (shellItemIDList != null) {
+			size += 4 + shellItemIDList.byteLength();
+		}
+		if (fileLocationInfo != null)
+			size += fileLocationInfo.byteSize();
+		size += uStringSize(LazyStrings.S_DESCRIPTION, description);
+		size += uStringSize(LazyStrings.S_RELATIVE_PATH, relativePath);
+		size += uStringSize(LazyStrings.S_WORKING_DIRECTORY, workingDirectory);
+		size += uStringSize(LazyStrings.S_COMMAND_LINE, commandLine);
+		size += uStringSize(LazyStrings.S_ICON_FILE_NAME, iconFileName);
+		return size + ShortcutWriter.TERMINAL_SIZE;
+	}
+
+	/* counted UTF-16LE section */
+	int uStringSize(int slot, String value) {
+		if (lazy != null && lazy.pending(slot))
+			return 2 + 2 * lazy.spans[slot * 2 + 1];
+		return (value != null) ? 2 + 2 * value.length() : 0;
+	}
+
+	/* zero terminated US-ASCII string, see ShortcutWriter.writeAsciiz() */
+	static int asciizSize(String s) {
+		return (s != null) ? s.length() + 1 : 0;
 	}
 
 	public String toString() {
-		String s = "";
-		String ls = System.getProperty("line.separator");
-		s += "flags:"
-				+ describeFlags(flags)
-				+ ls
-				+ "attr:"
-				+ describeAttributes(attributes)
-				+ ls
-				+ "cTime:"
-				+ new Date(cTime).toString()
-				+ ls
-				+ "mTime:"
-				+ new Date(mTime).toString()
-				+ ls
-				+ "aTime:"
-				+ new Date(aTime).toString()
-				+ ls
-				+ "fileLength:"
-				+ fileLength
-				+ ls
-				+ "iconID:"
-				+ iconID
-				+ ls
-				+ "showWnd:"
-				+ describeShowWnd(showWnd)
-				+ ls
-				+ "hotKey:"
-				+ hotKey
-				+ ls
-				+ "unknown0:"
-				+ unknown0
-				+ ls
-				+ ((fileLocationInfo != null) ? fileLocationInfo.toString("\t")
-						: "")
-				+ ((description != null) ? "description:" + description + ls
-						: "")
-				+ ((relativePath != null) ? "relativePath:" + relativePath + ls
-						: "")
-				+ ((workingDirectory != null) ? "workingDirectory:"
-						+ workingDirectory + ls : "")
-				+ ((commandLine != null) ? "commandLine:" + commandLine + ls
-						: "")
-				+ ((iconFileName != null) ? "iconFileName:" + iconFileName + ls
-						: "")
-				+ ((something != null) ? "something:" + something + ls : "");
-		return s;
-	}
-//
-
-//
+		StringBuilder sb = new StringBuilder(512);
+		try {
+			describeTo(sb);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the same text as {@link #toString()} to <code>out</code>.
+	 */
+	public void describeTo(Appendable out) throws IOException {
+		out.append("flags:");
+		describeFlags(flags, out);
+		out.append(LS).append("attr:");
+		describeAttributes(attributes, out);
+		out.append(LS).append("cTime:");
+		appendDate(out, cTime);
+		out.append(LS).append("mTime:");
+		appendDate(out, mTime);
+		out.append(LS).append("aTime:");
+		appendDate(out, aTime);
+		out.append(LS).append("fileLength:");
+		appendNumber(out, fileLength);
+		out.append(LS).append("iconID:");
+		appendNumber(out, iconID);
+		out.append(LS).append("showWnd:");
+		describeShowWnd(showWnd, out);
+		out.append(LS).append("hotKey:");
+		appendNumber(out, hotKey);
+		out.append(LS).append("unknown0:");
+		appendNumber(out, unknown0);
+		out.append(LS);
+		if (fileLocationInfo != null)
+			fileLocationInfo.describeTo(out, "\t");
+		describeString(out, "description:", getDescription());
+		describeString(out, "relativePath:", getRelativePath());
+		describeString(out, "workingDirectory:", getWorkingDirectory());
+		describeString(out, "commandLine:", getCommandLine());
+		describeString(out, "iconFileName:", getIconFileName());
+		describeString(out, "something:", getSomething());
+	}
+
 	byte[] getBytes(){
-			byte[] buff = null;
-			int size=0;
-			int iflag=0;
-			int off=0;
-			try{
-				byte[] bshell = null;
-				byte[] bdesc = (description!=null)?description.getBytes("UTF-16LE"):null;
-				byte[] brel = (relativePath!=null)?relativePath.getBytes("UTF-16LE"):null;
-				byte[] bwork = (workingDirectory!=null)?workingDirectory.getBytes("UTF-16LE"):null;
-				byte[] bcmd = (commandLine!=null)?commandLine.getBytes("UTF-16LE"):null;
-				byte[] bico = (iconFileName!=null)?iconFileName.getBytes("UTF-16LE"):null;
-				byte[] bfloc = (fileLocationInfo!=null)?fileLocationInfo.getBytes():null;
-				int ishell = 0;
-				if(shellItemIDList!=null){
-					System.out.println("HAS SHELL ID LIST!!!!!!"+shellItemIDList);
-					for(ShellItemID shi: shellItemIDList)
-						ishell+=0x02+shi.content.length;
-					
-					ishell+=0x04;
-					
-					off = 2;
-					bshell = new byte[ishell];
-					setShort(bshell, 0, (short)(ishell-2));
-					for(ShellItemID shi: shellItemIDList){
-						setShort(bshell, off, (short)(shi.content.length+2));
-						copyArray(bshell, shi.content, off+2);
-						off+=2+shi.content.length;
-						//	ishell+=0x02+shi.content.length;
-					}
-					setShort(bshell, off, (short)0x00);
-					System.out.println("shi len "+off);
-					System.out.println(commandLine);
-				}
-				size = 
-					_headerEl.length
-					+_headerGUID.length
-					+7*4
-					+4*8
-					+ishell
-					+((bfloc!=null)?bfloc.length:0)
-					+((bdesc!=null)?bdesc.length+2:0)
-					+((brel!=null)?brel.length+2:0)
-					+((bwork!=null)?bwork.length+2:0)
-					+((bcmd!=null)?bcmd.length+2:0)
-					+((bico!=null)?bico.length+2:0)
-					;
-				iflag =
-					((bshell!=null)?F_ID_LIST:0)
-					|((bfloc!=null)?F_LOCATION:0)
-					|((bdesc!=null)?F_DESCRIPTION:0)
-					|((brel!=null)?F_RELATIVE_PATH:0)
-					|((bwork!=null)?F_WORKING_DIRECTORY:0)
-					|((bcmd!=null)?F_COMMAND_LINE:0)
-					|((bico!=null)?F_CUSTOM_ICON:0)
-					;
-				iflag|=F_SOMETHING;
-				System.out.println("write flags:"+describeFlags(iflag));
-//				int flags = 0;
-//				int attributes = 0;
-//				long cTime = 0;
-//				long mTime = 0;
-//				long aTime = 0;
-//				int fileLength = 0;
-//				int iconID = 0;
-//				int showWnd = 0;
-//				int hotKey = 0;
-//				long unknown0 = 0;
-//				Vector<ShellItemID> shellItemIDList = null;
-//				FileLocationInfo fileLocationInfo = null;
-//				String description = null;
-//				String relativePath = null;
-//				String workingDirectory = null;
-//				String commandLine = null;
-//				String iconFileName = null;
-//				String something = null;
-//				int unknown1 = 0;
-				off=0;
-				buff = new byte[size];
-				off+=copyArray(buff, _headerEl, off);
-				off+=copyArray(buff, _headerGUID , off);
-				off+=setInt(buff, off, iflag);
-				off+=setInt(buff, off, attributes);
-				off+=setLong(buff, off, cTime);
-				off+=setLong(buff, off, mTime);
-				off+=setLong(buff, off, aTime);
-				off+=setInt(buff, off, fileLength);
-				off+=setInt(buff, off, iconID);
-				off+=setInt(buff, off, showWnd);
-				off+=setInt(buff, off, hotKey);
-				off+=setLong(buff, off, unknown0);
-				
-				off+=((bshell!=null)?copyArray(buff, bshell, off):0);
-				off+=((bfloc!=null)?copyArray(buff, bfloc, off):0);
-				off+=((bdesc!=null)?copyUString(buff, bdesc, off):0);
-				off+=((brel!=null)?copyUString(buff, brel, off):0);
-				off+=((bwork!=null)?copyUString(buff, bwork, off):0);
-				
-				off+=((bcmd!=null)?copyUString(buff, bcmd, off):0);
-				off+=((bico!=null)?copyUString(buff, bico, off):0);
-				//byte[] brel = (h!=null)?h.getBytes("UTF16-LE"):null;
-			}catch(Exception e){
-				e.printStackTrace();
-				buff=null;
-			}
-			
-			return buff;
+		return getBytes(null);
+	}
+
+	/**
+	 * Returns the serialized shortcut or null if it cannot be written, see
+	 * {@link #writeTo(OutputStream)}.
+	 */
+	byte[] getBytes(ShortcutTrace trace){
+		try {
+			return ShortcutWriter.toArray(ShortcutWriter.get().write(this, trace));
+		} catch (MalformedShortcutException e) {
+			return null;
+		}
 	}
+
+	public void writeTo(OutputStream os) throws IOException,
+			MalformedShortcutException {
+		writeTo(os, null);
+	}
+
+	/**
+	 * Writes the shortcut, reporting the written sections to
+	 * <code>trace</code> if it is not null.
+	 */
+	public void writeTo(OutputStream os, ShortcutTrace trace)
+			throws IOException, MalformedShortcutException {
+		ByteBuffer buff = ShortcutWriter.get().write(this, trace);
+		os.write(buff.array(), buff.arrayOffset(), buff.remaining());
+	}
+
+	public void writeTo(WritableByteChannel ch) throws IOException,
+			MalformedShortcutException {
+		ByteBuffer buff = ShortcutWriter.get().write(this, null);
+		while (buff.hasRemaining())
+			ch.write(buff);
+	}
+
 	/**
 	 * @param args
 	 */
@@ -1234,7 +2096,7 @@ public class Shortcut {
 		 */
 		scut.shellItemIDList.clear();
 		//scut.shellItemIDList.add(new ShellItemID(shortToByte(_shit0Unicode1)));
-		scut.shellItemIDList.add(new ShellItemID(createFileSHID("gość.txt")));
+		scut.shellItemIDList.add(createFileSHID("gość.txt"));
 		OutputStream os=null;
 		if(System.getProperty("os.name").toLowerCase().startsWith("win")){
 			os = new FileOutputStream("y.lnk");
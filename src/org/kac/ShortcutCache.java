@@ -0,0 +1,263 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps parsed shortcuts in memory, keyed by absolute normalized path and
+ * validated against the file size and modification time. The cache is split
+ * in segments with their own lock, so lookups of different files rarely
+ * contend. Both the entry count and the summed {@link Shortcut#byteSize()}
+ * of all segments are bounded, the least recently used entry of the whole
+ * cache is evicted first.
+ * <p>
+ * Every lookup stats the file unless a revalidate interval is set, in which
+ * case an entry younger than the interval is returned without touching the
+ * file system at all. Returned shortcuts are shared between callers and must
+ * not be modified. Concurrent misses on the same file may each load it, the
+ * last one stays.
+ */
+public final class ShortcutCache {
+
+	static final int SEGMENTS = 16;
+
+	static final class Entry {
+		final long size;
+		final long mtime;
+		final Shortcut shortcut;
+		final int weight;
+		/* System.nanoTime() of the last check against the file */
+		volatile long checked;
+		/* clock value of the last use, orders entries across segments */
+		volatile long used;
+
+		Entry(long size, long mtime, Shortcut shortcut, long checked) {
+			this.size = size;
+			this.mtime = mtime;
+			this.shortcut = shortcut;
+			this.weight = shortcut.byteSize();
+			this.checked = checked;
+		}
+	}
+
+	/*
+	 * the limits hold for the totals of all segments, a segment's eldest entry
+	 * is its least recently used one
+	 */
+	final class Segment {
+		final LinkedHashMap<Path, Entry> map = new LinkedHashMap<Path, Entry>(
+				16, 0.75f, true);
+
+		synchronized Entry get(Path key) {
+			Entry e = map.get(key);
+			if (e != null)
+				e.used = clock.incrementAndGet();
+			return e;
+		}
+
+		synchronized void put(Path key, Entry e) {
+			e.used = clock.incrementAndGet();
+			Entry old = map.put(key, e);
+			if (old != null) {
+				weight.addAndGet(e.weight - old.weight);
+			} else {
+				count.incrementAndGet();
+				weight.addAndGet(e.weight);
+			}
+		}
+
+		synchronized void remove(Path key) {
+			Entry old = map.remove(key);
+			if (old != null) {
+				count.decrementAndGet();
+				weight.addAndGet(-old.weight);
+			}
+		}
+
+		/* last use of the eldest entry, Long.MAX_VALUE when empty */
+		synchronized long eldestUse() {
+			if (map.isEmpty())
+				return Long.MAX_VALUE;
+			return map.values().iterator().next().used;
+		}
+
+		/* removes the eldest entry if it was last used at used */
+		synchronized boolean evict(long used) {
+			if (map.isEmpty())
+				return false;
+			Iterator<Entry> it = map.values().iterator();
+			Entry eldest = it.next();
+			if (eldest.used != used)
+				return false;
+			it.remove();
+			count.decrementAndGet();
+			weight.addAndGet(-eldest.weight);
+			evictions.increment();
+			return true;
+		}
+
+		synchronized void clear() {
+			for (Entry e : map.values()) {
+				count.decrementAndGet();
+				weight.addAndGet(-e.weight);
+			}
+			map.clear();
+		}
+	}
+
+	final Segment[] segments = new Segment[SEGMENTS];
+	final int maxEntries;
+	final long maxWeight;
+	final AtomicLong clock = new AtomicLong();
+	final AtomicInteger count = new AtomicInteger();
+	final AtomicLong weight = new AtomicLong();
+	volatile long revalidateNanos = 0;
+
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+	final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxEntries
+	 *            number of shortcuts kept
+	 * @param maxBytes
+	 *            summed serialized size of the shortcuts kept
+	 */
+	public ShortcutCache(int maxEntries, long maxBytes) {
+		if (maxEntries < 1 || maxBytes < 1)
+			throw new IllegalArgumentException("empty cache");
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxBytes;
+		for (int i = 0; i < SEGMENTS; i++)
+			segments[i] = new Segment();
+	}
+
+	/**
+	 * Entries checked against the file less than <code>interval</code> ago
+	 * are returned without a stat, 0 checks on every lookup.
+	 */
+	public void setRevalidateInterval(long interval, TimeUnit unit) {
+		revalidateNanos = unit.toNanos(interval);
+	}
+
+	/**
+	 * The parsed shortcut, from memory when the file did not change since it
+	 * was loaded.
+	 */
+	public Shortcut get(Path shortcutFile) throws IOException,
+			MalformedShortcutException {
+		Path key = key(shortcutFile);
+		Segment seg = segment(key);
+		Entry e = seg.get(key);
+		long now = System.nanoTime();
+		if (e != null && revalidateNanos > 0 && now - e.checked < revalidateNanos) {
+			hits.increment();
+			return e.shortcut;
+		}
+		BasicFileAttributes attrs = Files.readAttributes(key,
+				BasicFileAttributes.class);
+		long size = attrs.size();
+		long mtime = attrs.lastModifiedTime().toMillis();
+		if (e != null && e.size == size && e.mtime == mtime) {
+			e.checked = now;
+			hits.increment();
+			return e.shortcut;
+		}
+		misses.increment();
+		Shortcut s = Shortcut.loadShortcut(key);
+		seg.put(key, new Entry(size, mtime, s, now));
+		evict();
+		return s;
+	}
+
+	/*
+	 * evicts the least recently used entry of all segments until both limits
+	 * hold; a shortcut larger than the byte limit does not stay either
+	 */
+	void evict() {
+		while (count.get() > maxEntries || weight.get() > maxWeight) {
+			Segment oldest = null;
+			long used = Long.MAX_VALUE;
+			for (Segment seg : segments) {
+				long u = seg.eldestUse();
+				if (u < used) {
+					used = u;
+					oldest = seg;
+				}
+			}
+			if (oldest == null)
+				return;
+			/* a lost race with another use or eviction just looks again */
+			oldest.evict(used);
+		}
+	}
+
+	public void invalidate(Path shortcutFile) {
+		Path key = key(shortcutFile);
+		segment(key).remove(key);
+	}
+
+	public void clear() {
+		for (Segment seg : segments)
+			seg.clear();
+	}
+
+	public int size() {
+		return count.get();
+	}
+
+	/* summed byteSize() of the cached shortcuts */
+	public long weight() {
+		return weight.get();
+	}
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	public long misses() {
+		return misses.sum();
+	}
+
+	public long evictions() {
+		return evictions.sum();
+	}
+
+	static Path key(Path p) {
+		return p.toAbsolutePath().normalize();
+	}
+
+	Segment segment(Path key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		return segments[h & (SEGMENTS - 1)];
+	}
+}
@@ -0,0 +1,96 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The fixed fields from the first 0x4C bytes of a shortcut, see
+ * {@link Shortcut#readHeader(java.nio.file.Path)}. Times are the raw values
+ * stored in the file.
+ */
+public final class ShortcutHeader {
+
+	final int flags;
+	final int attributes;
+	final long cTime;
+	final long mTime;
+	final long aTime;
+	final int fileLength;
+	final int iconID;
+	final int showWnd;
+	final int hotKey;
+
+	/* buff holds a validated header at index 0 */
+	ShortcutHeader(ByteBuffer buff) {
+		flags = Shortcut.getInt(buff, 0x14);
+		attributes = Shortcut.getInt(buff, 0x18);
+		cTime = Shortcut.getLong(buff, 0x1C);
+		mTime = Shortcut.getLong(buff, 0x24);
+		aTime = Shortcut.getLong(buff, 0x2C);
+		fileLength = Shortcut.getInt(buff, 0x34);
+		iconID = Shortcut.getInt(buff, 0x38);
+		showWnd = Shortcut.getInt(buff, 0x3C);
+		hotKey = Shortcut.getInt(buff, 0x40);
+	}
+
+	public int getFlags() {
+		return flags;
+	}
+
+	public int getAttributes() {
+		return attributes;
+	}
+
+	public long getCTime() {
+		return cTime;
+	}
+
+	public long getMTime() {
+		return mTime;
+	}
+
+	public long getATime() {
+		return aTime;
+	}
+
+	public int getFileLength() {
+		return fileLength;
+	}
+
+	public int getIconID() {
+		return iconID;
+	}
+
+	public int getShowWnd() {
+		return showWnd;
+	}
+
+	public int getHotKey() {
+		return hotKey;
+	}
+
+	public String toString() {
+		return "flags:" + Shortcut.describeFlags(flags) + " attr:"
+				+ Shortcut.describeAttributes(attributes) + " fileLength:"
+				+ fileLength + " showWnd:" + Shortcut.describeShowWnd(showWnd);
+	}
+}
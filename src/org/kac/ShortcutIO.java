@@ -0,0 +1,179 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File access for the shortcut loaders. Small files are read into a per-thread
+ * direct buffer that is reused between calls, files at or above the map
+ * threshold are memory-mapped when they are on the default file system.
+ * Other file systems, e.g. a ZIP archive opened with
+ * {@link FileSystems#newFileSystem(Path, ClassLoader)}, are always read.
+ */
+final class ShortcutIO {
+
+	static final long DEFAULT_MAP_THRESHOLD = 1 << 20;
+	static final int MIN_BUFFER = 1 << 12;
+
+	static volatile long mapThreshold = DEFAULT_MAP_THRESHOLD;
+
+	private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+	private ShortcutIO() {
+	}
+
+	/**
+	 * Reads the whole file. The returned buffer spans the file content from
+	 * position 0 to its limit. Unless the file was mapped it is the calling
+	 * thread's reusable buffer, so it is only valid until the next read on the
+	 * same thread.
+	 */
+	static ByteBuffer read(Path path) throws IOException {
+		FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long size = ch.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("file too large: " + path);
+			if (size >= mapThreshold
+					&& path.getFileSystem() == FileSystems.getDefault())
+				return ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			ByteBuffer buff = buffer((int) size);
+			readFully(ch, buff, path);
+			buff.flip();
+			return buff;
+		} finally {
+			ch.close();
+		}
+	}
+
+	/**
+	 * Reads at most the first <code>size</code> bytes of the file with one
+	 * positioned read, without looking at its length. The result is the
+	 * calling thread's reusable buffer, flipped; it is shorter than
+	 * <code>size</code> only if the file is.
+	 */
+	static ByteBuffer readHead(Path path, int size) throws IOException {
+		FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer buff = buffer(size);
+			while (buff.hasRemaining())
+				if (ch.read(buff, buff.position()) < 0)
+					break;
+			buff.flip();
+			return buff;
+		} finally {
+			ch.close();
+		}
+	}
+
+	/**
+	 * Reads a file from the start as far as the caller asks for, into the
+	 * calling thread's reusable buffer.
+	 */
+	static final class Prefix {
+		final FileChannel ch;
+		/* when opened, need() never reads further */
+		final long size;
+		ByteBuffer buff;
+		boolean eof = false;
+
+		Prefix(Path path) throws IOException {
+			ch = FileChannel.open(path, StandardOpenOption.READ);
+			size = ch.size();
+			buff = buffer(MIN_BUFFER);
+			buff.limit(0);
+		}
+
+		/**
+		 * Makes the first <code>end</code> bytes available unless the file is
+		 * shorter, the buffer never grows past the file size. Reads fill as
+		 * much of the buffer as they can, so the next call is usually free.
+		 */
+		void need(int end) throws IOException {
+			if (end > size)
+				end = (int) size;
+			if (end <= buff.limit() || eof)
+				return;
+			int loaded = buff.limit();
+			if (end > buff.capacity()) {
+				ByteBuffer old = buff;
+				old.position(0);
+				buff = buffer(end);
+				buff.put(old);
+			} else
+				buff.position(loaded);
+			buff.limit(buff.capacity());
+			while (buff.position() < end) {
+				if (ch.read(buff, buff.position()) < 0) {
+					eof = true;
+					break;
+				}
+			}
+			buff.flip();
+		}
+
+		/* the loaded bytes, from 0 to limit */
+		ByteBuffer data() {
+			return buff;
+		}
+
+		void close() throws IOException {
+			ch.close();
+		}
+	}
+
+	/**
+	 * Returns the calling thread's direct buffer, cleared and limited to
+	 * <code>size</code> bytes. The buffer only ever grows.
+	 */
+	static ByteBuffer buffer(int size) {
+		ByteBuffer buff = buffers.get();
+		if (buff == null || buff.capacity() < size) {
+			int cap = MIN_BUFFER;
+			while (cap < size && cap > 0)
+				cap <<= 1;
+			buff = ByteBuffer.allocateDirect(cap > 0 ? cap : size);
+			buffers.set(buff);
+		}
+		buff.clear();
+		buff.limit(size);
+		return buff;
+	}
+
+	/**
+	 * Reads until <code>dst</code> is full, a short read is not an error.
+	 */
+	static void readFully(ReadableByteChannel ch, ByteBuffer dst, Path path)
+			throws IOException {
+		while (dst.hasRemaining())
+			if (ch.read(dst) < 0)
+				throw new EOFException("unexpected end of file after "
+						+ dst.position() + " bytes: " + path);
+	}
+}
@@ -0,0 +1,326 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent index of the shortcuts under some directory trees. For every
+ * file it keeps the size, the modification time and the shortcut bytes,
+ * which are only stored once they parse. {@link #load(Path)} maps the
+ * index file and only slices it, records are parsed on demand by
+ * {@link #get(Path)}. {@link #update(Path, ShortcutScanner.Listener)} stats
+ * the tree and reparses only the files whose size or time changed.
+ * <p>
+ * File layout, little-endian: magic, version, record count, then per record
+ * the UTF-8 path length (int) and bytes, size (long), mtime in millis (long),
+ * shortcut length (int) and bytes.
+ * <p>
+ * Instances are not thread safe.
+ */
+public final class ShortcutIndex {
+
+	static final int MAGIC = 0x4958434A; // "JCXI"
+	static final int VERSION = 1;
+
+	static final class Record {
+		final long size;
+		final long mtime;
+		/* serialized shortcut, a slice of the mapped file or an own array */
+		final ByteBuffer data;
+
+		Record(long size, long mtime, ByteBuffer data) {
+			this.size = size;
+			this.mtime = mtime;
+			this.data = data;
+		}
+	}
+
+	/* by absolute normalized path */
+	final Map<String, Record> records = new HashMap<String, Record>();
+
+	public ShortcutIndex() {
+	}
+
+	/**
+	 * Maps an index written by {@link #save(Path)}; a missing file gives an
+	 * empty index.
+	 */
+	public static ShortcutIndex load(Path indexFile) throws IOException {
+		ShortcutIndex index = new ShortcutIndex();
+		FileChannel ch;
+		try {
+			ch = FileChannel.open(indexFile, StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return index;
+		}
+		ByteBuffer buff;
+		try {
+			buff = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		} finally {
+			ch.close();
+		}
+		buff.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			if (buff.getInt() != MAGIC || buff.getInt() != VERSION)
+				throw new IOException("not a shortcut index: " + indexFile);
+			/* every record takes at least its four length and stamp fields */
+			int count = checkLength(buff.getInt(), buff.remaining() / 24,
+					indexFile);
+			byte[] name = new byte[256];
+			for (int i = 0; i < count; i++) {
+				int len = checkLength(buff.getInt(), buff.remaining(),
+						indexFile);
+				if (name.length < len)
+					name = new byte[Math.max(len, name.length * 2)];
+				buff.get(name, 0, len);
+				String path = new String(name, 0, len, StandardCharsets.UTF_8);
+				long size = buff.getLong();
+				long mtime = buff.getLong();
+				int dlen = checkLength(buff.getInt(), buff.remaining(),
+						indexFile);
+				ByteBuffer data = buff.slice(buff.position(), dlen);
+				buff.position(buff.position() + dlen);
+				index.records.put(path, new Record(size, mtime, data));
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("corrupted shortcut index: " + indexFile, e);
+		}
+		return index;
+	}
+
+	/* a length read from the index, which cannot exceed max */
+	static int checkLength(int len, int max, Path indexFile)
+			throws IOException {
+		if (len < 0 || len > max)
+			throw new IOException("corrupted shortcut index: " + indexFile
+					+ ", length " + len + " with " + max + " left");
+		return len;
+	}
+
+	/**
+	 * Writes the index next to <code>indexFile</code> and moves it over the
+	 * old one, readers never see a partial file.
+	 */
+	public void save(Path indexFile) throws IOException {
+		Path abs = indexFile.toAbsolutePath();
+		Path tmp = Files.createTempFile(abs.getParent(), abs.getFileName()
+				.toString(), ".tmp");
+		try {
+			FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				ByteBuffer out = ByteBuffer.allocate(1 << 16).order(
+						ByteOrder.LITTLE_ENDIAN);
+				out.putInt(MAGIC).putInt(VERSION).putInt(records.size());
+				for (Map.Entry<String, Record> e : records.entrySet()) {
+					byte[] path = e.getKey().getBytes(StandardCharsets.UTF_8);
+					Record r = e.getValue();
+					int need = 4 + path.length + 8 + 8 + 4 + r.data.remaining();
+					if (out.remaining() < need) {
+						flush(ch, out);
+						if (out.capacity() < need)
+							out = ByteBuffer.allocate(need).order(
+									ByteOrder.LITTLE_ENDIAN);
+					}
+					out.putInt(path.length).put(path);
+					out.putLong(r.size).putLong(r.mtime);
+					out.putInt(r.data.remaining()).put(r.data.duplicate());
+				}
+				flush(ch, out);
+				ch.force(true);
+			} finally {
+				ch.close();
+			}
+			Files.move(tmp, abs, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	static void flush(FileChannel ch, ByteBuffer out) throws IOException {
+		out.flip();
+		while (out.hasRemaining())
+			ch.write(out);
+		out.clear();
+	}
+
+	/**
+	 * Stats every shortcut under <code>root</code>, reparses the new and
+	 * changed ones and drops the entries of files that are gone. The
+	 * listener, if any, gets the reparsed shortcuts and the failures; a
+	 * failed file keeps no entry and is retried by the next update.
+	 * 
+	 * @return number of files parsed
+	 */
+	public int update(Path root, ShortcutScanner.Listener listener)
+			throws IOException {
+		Path top = ShortcutCache.key(root);
+		String prefix = top.toString();
+		Set<String> seen = new HashSet<String>();
+		int parsed = 0;
+		ArrayDeque<Path> dirs = new ArrayDeque<Path>();
+		dirs.push(top);
+		while (!dirs.isEmpty()) {
+			Path dir = dirs.pop();
+			DirectoryStream<Path> ds;
+			try {
+				ds = Files.newDirectoryStream(dir);
+			} catch (IOException e) {
+				if (dir == top)
+					throw e;
+				if (listener != null)
+					listener.failed(dir, e);
+				/* keep what the index knows about it */
+				keep(dir.toString(), seen);
+				continue;
+			}
+			try {
+				for (Path p : ds) {
+					BasicFileAttributes attrs;
+					try {
+						attrs = Files.readAttributes(p,
+								BasicFileAttributes.class,
+								LinkOption.NOFOLLOW_LINKS);
+					} catch (IOException e) {
+						if (listener != null)
+							listener.failed(p, e);
+						/* a file or directory, keep its entries */
+						keep(p.toString(), seen);
+						continue;
+					}
+					if (attrs.isDirectory())
+						dirs.push(p);
+					else if (attrs.isRegularFile()
+							&& ShortcutScanner.isShortcut(p)) {
+						String key = p.toString();
+						seen.add(key);
+						if (refresh(p, key, attrs, listener))
+							parsed++;
+					}
+				}
+			} catch (DirectoryIteratorException e) {
+				if (listener != null)
+					listener.failed(dir, e.getCause());
+				/* the rest of the listing is unknown */
+				keep(dir.toString(), seen);
+			} finally {
+				ds.close();
+			}
+		}
+		Iterator<String> it = records.keySet().iterator();
+		while (it.hasNext()) {
+			String key = it.next();
+			if (under(key, prefix) && !seen.contains(key))
+				it.remove();
+		}
+		return parsed;
+	}
+
+	/* true if the file was parsed */
+	boolean refresh(Path p, String key, BasicFileAttributes attrs,
+			ShortcutScanner.Listener listener) {
+		long size = attrs.size();
+		long mtime = attrs.lastModifiedTime().toMillis();
+		Record r = records.get(key);
+		if (r != null && r.size == size && r.mtime == mtime)
+			return false;
+		try {
+			/*
+			 * the file bytes, not getBytes(): the writer drops the extra data
+			 * and cannot tell a missing id list from an empty one
+			 */
+			ByteBuffer src = ShortcutIO.read(p);
+			Shortcut s = Shortcut.parse(src);
+			byte[] data = new byte[src.remaining()];
+			src.get(data);
+			records.put(key, new Record(size, mtime, ByteBuffer.wrap(data)));
+			if (listener != null)
+				listener.shortcut(p, s);
+		} catch (IOException e) {
+			records.remove(key);
+			if (listener != null)
+				listener.failed(p, e);
+		} catch (MalformedShortcutException e) {
+			records.remove(key);
+			if (listener != null)
+				listener.failed(p, e);
+		}
+		return true;
+	}
+
+	void keep(String dir, Set<String> seen) {
+		for (String key : records.keySet())
+			if (under(key, dir))
+				seen.add(key);
+	}
+
+	/* key is dir itself or a path below it */
+	static boolean under(String key, String dir) {
+		if (!key.startsWith(dir))
+			return false;
+		return key.length() == dir.length() || dir.endsWith(File.separator)
+				|| key.charAt(dir.length()) == File.separatorChar;
+	}
+
+	/**
+	 * The indexed shortcut of the file, parsed from the index, or null.
+	 */
+	public Shortcut get(Path shortcutFile) throws MalformedShortcutException {
+		Record r = records.get(ShortcutCache.key(shortcutFile).toString());
+		return (r == null) ? null : Shortcut.parse(r.data);
+	}
+
+	public boolean contains(Path shortcutFile) {
+		return records.containsKey(ShortcutCache.key(shortcutFile).toString());
+	}
+
+	/* indexed paths, absolute and normalized */
+	public Set<String> paths() {
+		return Collections.unmodifiableSet(records.keySet());
+	}
+
+	public int size() {
+		return records.size();
+	}
+}
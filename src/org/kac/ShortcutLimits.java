@@ -0,0 +1,80 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+/**
+ * Bounds for strict parsing. A strict parse checks every offset and length
+ * against the data before using it and rejects files that exceed any of the
+ * limits, so the work spent on one file, however corrupt, is bounded by
+ * them. See {@link Shortcut#parseStrict(java.nio.ByteBuffer, ShortcutLimits)}.
+ */
+public final class ShortcutLimits {
+
+	/* generous for real links, which are a few kilobytes */
+	public static final ShortcutLimits DEFAULT = new ShortcutLimits(1 << 20,
+			1024, 64, 32767);
+
+	final int maxBytes;
+	final int maxItems;
+	final int maxExtraBlocks;
+	final int maxStringChars;
+
+	/**
+	 * @param maxBytes
+	 *            size of the whole shortcut
+	 * @param maxItems
+	 *            entries of the item id list
+	 * @param maxExtraBlocks
+	 *            extra data blocks after the strings
+	 * @param maxStringChars
+	 *            characters of any single string
+	 */
+	public ShortcutLimits(int maxBytes, int maxItems, int maxExtraBlocks,
+			int maxStringChars) {
+		if (maxBytes < 0 || maxItems < 0 || maxExtraBlocks < 0
+				|| maxStringChars < 0)
+			throw new IllegalArgumentException();
+		this.maxBytes = maxBytes;
+		this.maxItems = maxItems;
+		this.maxExtraBlocks = maxExtraBlocks;
+		this.maxStringChars = maxStringChars;
+	}
+
+	public ShortcutLimits maxBytes(int maxBytes) {
+		return new ShortcutLimits(maxBytes, maxItems, maxExtraBlocks,
+				maxStringChars);
+	}
+
+	public ShortcutLimits maxItems(int maxItems) {
+		return new ShortcutLimits(maxBytes, maxItems, maxExtraBlocks,
+				maxStringChars);
+	}
+
+	public ShortcutLimits maxExtraBlocks(int maxExtraBlocks) {
+		return new ShortcutLimits(maxBytes, maxItems, maxExtraBlocks,
+				maxStringChars);
+	}
+
+	public ShortcutLimits maxStringChars(int maxStringChars) {
+		return new ShortcutLimits(maxBytes, maxItems, maxExtraBlocks,
+				maxStringChars);
+	}
+}
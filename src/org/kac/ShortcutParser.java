@@ -0,0 +1,126 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Parses many shortcuts on one thread with as little allocation as possible.
+ * Files are read into buffers owned by the parser and every parse can fill a
+ * recycled {@link Shortcut}, which is {@link Shortcut#reset() reset} first.
+ * Instances are not thread safe.
+ * <p>
+ * In lazy mode the strings of a shortcut loaded from a file point into the
+ * parser's own array: they have to be read before the next call on the same
+ * parser, or they turn into the next file's bytes.
+ */
+public final class ShortcutParser {
+
+	boolean lazy = false;
+	StringPool pool = null;
+	ShortcutLimits limits = null;
+	/* owned copy of the last file, lazy mode only */
+	byte[] bytes = new byte[ShortcutIO.MIN_BUFFER];
+	ByteBuffer view = ByteBuffer.wrap(bytes);
+
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	/**
+	 * Takes working directories, volume labels, share names and base paths
+	 * from <code>pool</code>, null turns pooling off.
+	 */
+	public void setStringPool(StringPool pool) {
+		this.pool = pool;
+	}
+
+	public StringPool getStringPool() {
+		return pool;
+	}
+
+	/**
+	 * Parses strictly within <code>limits</code>, see
+	 * {@link Shortcut#parseStrict(ByteBuffer, ShortcutLimits)}; null turns
+	 * strict parsing off.
+	 */
+	public void setLimits(ShortcutLimits limits) {
+		this.limits = limits;
+	}
+
+	public ShortcutLimits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * Loads and parses the file into <code>into</code>, or into a new
+	 * shortcut when it is null.
+	 */
+	public Shortcut parse(Path shortcutFile, Shortcut into) throws IOException,
+			MalformedShortcutException {
+		if (limits != null) {
+			long size = Files.size(shortcutFile);
+			if (size > limits.maxBytes)
+				throw new MalformedShortcutException(
+						MalformedShortcutException.Reason.LIMIT_EXCEEDED, 0,
+						"file of " + size + " bytes");
+		}
+		ByteBuffer src = ShortcutIO.read(shortcutFile);
+		if (lazy) {
+			int len = src.remaining();
+			if (bytes.length < len) {
+				bytes = new byte[Math.max(len, bytes.length * 2)];
+				view = ByteBuffer.wrap(bytes);
+			}
+			src.get(bytes, 0, len);
+			view.clear();
+			view.limit(len);
+			src = view;
+		}
+		return parse(src, into);
+	}
+
+	/**
+	 * Parses the shortcut between the buffer's position and limit into
+	 * <code>into</code>, or into a new shortcut when it is null. In lazy
+	 * mode the shortcut keeps referring to <code>buff</code>.
+	 */
+	public Shortcut parse(ByteBuffer buff, Shortcut into)
+			throws MalformedShortcutException {
+		if (into == null)
+			into = new Shortcut();
+		else
+			into.reset();
+		return Shortcut.parse(into, buff, null, lazy, -1, pool, limits);
+	}
+
+	public Shortcut parse(byte[] buff, int offset, int length, Shortcut into)
+			throws MalformedShortcutException {
+		return parse(ByteBuffer.wrap(buff, offset, length), into);
+	}
+}
@@ -0,0 +1,394 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Enumeration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Walks directory trees and parses every <code>*.lnk</code> file on an
+ * executor. The walk runs on the calling thread and blocks once
+ * <code>maxInFlight</code> files are queued or being parsed, so memory use
+ * does not depend on the size of the tree. Per-file failures are reported
+ * to the listener and do not stop the scan. Shortcuts inside ZIP and JAR
+ * archives are inflated into memory and parsed from there, nothing is
+ * extracted to disk, see {@link #scanArchive(Path, Listener)} and
+ * {@link #scan(InputStream, Listener)}.
+ */
+public class ShortcutScanner {
+
+	public interface Listener {
+		/**
+		 * Called from the executor's threads, possibly concurrently.
+		 */
+		void shortcut(Path file, Shortcut shortcut);
+
+		/**
+		 * A file could not be read or parsed, or a directory could not be
+		 * listed. Called from the executor's threads or the scanning thread.
+		 */
+		void failed(Path file, Exception e);
+	}
+
+	/**
+	 * Element of the queue filled by {@link ShortcutScanner#scan(Path,
+	 * BlockingQueue)}; either <code>shortcut</code> or <code>failure</code>
+	 * is set.
+	 */
+	public static final class Result {
+		/** queued after the last result of a scan */
+		public static final Result END = new Result(null, null, null);
+
+		public final Path file;
+		public final Shortcut shortcut;
+		public final Exception failure;
+
+		Result(Path file, Shortcut shortcut, Exception failure) {
+			this.file = file;
+			this.shortcut = shortcut;
+			this.failure = failure;
+		}
+	}
+
+	static final String SUFFIX = ".lnk";
+
+	final Executor executor;
+	final int maxInFlight;
+	boolean lazy = false;
+	StringPool pool = null;
+	ShortcutLimits limits = null;
+
+	/**
+	 * Scans on the common ForkJoinPool with twice as many files in flight as
+	 * it has threads.
+	 */
+	public ShortcutScanner() {
+		this(ForkJoinPool.commonPool(), 2 * ForkJoinPool
+				.getCommonPoolParallelism());
+	}
+
+	/**
+	 * @param executor
+	 *            runs the parsing, e.g. a ForkJoinPool for CPU bound scans or
+	 *            a virtual thread executor for high-latency mounts
+	 * @param maxInFlight
+	 *            maximum number of files submitted but not yet reported
+	 */
+	public ShortcutScanner(Executor executor, int maxInFlight) {
+		if (maxInFlight < 1)
+			throw new IllegalArgumentException("maxInFlight < 1");
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Parse with {@link Shortcut#loadShortcutLazy(Path)} instead of
+	 * {@link Shortcut#loadShortcut(Path)}.
+	 */
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+
+	/**
+	 * Shares the repeating strings of all scanned shortcuts through
+	 * <code>pool</code>, see {@link ShortcutParser#setStringPool(StringPool)}.
+	 */
+	public void setStringPool(StringPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Parses strictly within <code>limits</code>, see
+	 * {@link Shortcut#loadShortcutStrict(Path, ShortcutLimits)}. Violations
+	 * are reported to {@link Listener#failed(Path, Exception)}.
+	 */
+	public void setLimits(ShortcutLimits limits) {
+		this.limits = limits;
+	}
+
+	/**
+	 * Scans <code>root</code> and returns once every shortcut found has been
+	 * reported.
+	 * 
+	 * @return number of shortcut files found
+	 */
+	public int scan(Path root, final Listener listener)
+			throws InterruptedException {
+		final Semaphore permits = new Semaphore(maxInFlight);
+		int count = 0;
+		ArrayDeque<Path> dirs = new ArrayDeque<Path>();
+		dirs.push(root);
+		try {
+			while (!dirs.isEmpty()) {
+				Path dir = dirs.pop();
+				DirectoryStream<Path> ds;
+				try {
+					ds = Files.newDirectoryStream(dir);
+				} catch (IOException e) {
+					listener.failed(dir, e);
+					continue;
+				}
+				try {
+					for (final Path p : ds) {
+						if (isShortcut(p)) {
+							permits.acquire();
+							count++;
+							submit(p, listener, permits);
+						} else if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS))
+							dirs.push(p);
+					}
+				} catch (RuntimeException e) {
+					/* DirectoryIteratorException and friends */
+					listener.failed(dir, e);
+				} finally {
+					try {
+						ds.close();
+					} catch (IOException e) {
+						listener.failed(dir, e);
+					}
+				}
+			}
+		} finally {
+			/* wait for the files still in flight */
+			permits.acquireUninterruptibly(maxInFlight);
+			permits.release(maxInFlight);
+		}
+		return count;
+	}
+
+	/**
+	 * Scans the ZIP or JAR file <code>archive</code> without extracting it.
+	 * Entries are found through its central directory, only the shortcuts
+	 * are inflated, each straight into an array that is parsed on the
+	 * executor. Entries are reported as by {@link #scan(InputStream,
+	 * Listener)}, an entry that cannot be inflated is reported as failed.
+	 * 
+	 * @return number of shortcut entries found
+	 */
+	public int scanArchive(Path archive, Listener listener)
+			throws IOException, InterruptedException {
+		final Semaphore permits = new Semaphore(maxInFlight);
+		int count = 0;
+		ZipFile zip = new ZipFile(archive.toFile());
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry e = entries.nextElement();
+				if (e.isDirectory() || !isShortcut(e.getName()))
+					continue;
+				count++;
+				InputStream in;
+				try {
+					in = zip.getInputStream(e);
+					try {
+						submit(e.getName(), in, listener, permits);
+					} finally {
+						in.close();
+					}
+				} catch (IOException x) {
+					listener.failed(entryPath(e.getName()), x);
+				}
+			}
+		} finally {
+			/* wait for the entries still in flight */
+			permits.acquireUninterruptibly(maxInFlight);
+			permits.release(maxInFlight);
+			zip.close();
+		}
+		return count;
+	}
+
+	/**
+	 * Scans the ZIP entries read from <code>in</code>, e.g. a backup stream
+	 * that cannot be seeked. Entries are read in order on the calling thread
+	 * and the shortcuts among them parsed on the executor. An entry is
+	 * reported under its name as a relative path, or under null when the
+	 * name is no valid path. Shortcut entries longer than the limits' or
+	 * else {@link ShortcutLimits#DEFAULT}'s maximum are reported as failed.
+	 * The stream is not closed.
+	 * 
+	 * @return number of shortcut entries found
+	 * @throws IOException
+	 *             when the stream itself cannot be read, the entries in
+	 *             flight are still reported
+	 */
+	public int scan(InputStream in, Listener listener) throws IOException,
+			InterruptedException {
+		final Semaphore permits = new Semaphore(maxInFlight);
+		int count = 0;
+		ZipInputStream zin = new ZipInputStream(in);
+		try {
+			ZipEntry e;
+			while ((e = zin.getNextEntry()) != null) {
+				if (e.isDirectory() || !isShortcut(e.getName()))
+					continue;
+				count++;
+				submit(e.getName(), zin, listener, permits);
+			}
+		} finally {
+			/* wait for the entries still in flight */
+			permits.acquireUninterruptibly(maxInFlight);
+			permits.release(maxInFlight);
+		}
+		return count;
+	}
+
+	static Path entryPath(String name) {
+		try {
+			return Paths.get(name);
+		} catch (InvalidPathException e) {
+			return null;
+		}
+	}
+
+	/* reads the entry held by in and submits it unless it is too long */
+	void submit(String name, InputStream in, Listener listener,
+			Semaphore permits) throws IOException, InterruptedException {
+		int max = ((limits != null) ? limits : ShortcutLimits.DEFAULT).maxBytes;
+		/* no array holds more, and max + 1 must not overflow */
+		max = Math.min(max, Integer.MAX_VALUE - 8);
+		Path file = entryPath(name);
+		byte[] data = in.readNBytes(max + 1);
+		if (data.length > max) {
+			listener.failed(file, new MalformedShortcutException(
+					MalformedShortcutException.Reason.LIMIT_EXCEEDED, 0,
+					"entry " + name + " of more than " + max + " bytes"));
+			return;
+		}
+		permits.acquire();
+		submit(file, ByteBuffer.wrap(data), listener, permits);
+	}
+
+	/**
+	 * Scans into a bounded queue; workers block while it is full.
+	 * {@link Result#END} is queued last, also when the scan is interrupted
+	 * or fails, so the consumer always sees it.
+	 */
+	public int scan(Path root, final BlockingQueue<Result> queue)
+			throws InterruptedException {
+		try {
+			return scan(root, new Listener() {
+				public void shortcut(Path file, Shortcut shortcut) {
+					put(queue, new Result(file, shortcut, null));
+				}
+
+				public void failed(Path file, Exception e) {
+					put(queue, new Result(file, null, e));
+				}
+			});
+		} finally {
+			putUninterruptibly(queue, Result.END);
+		}
+	}
+
+	/* an interrupted worker drops its result and keeps the interrupt */
+	static void put(BlockingQueue<Result> queue, Result r) {
+		try {
+			queue.put(r);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void putUninterruptibly(BlockingQueue<Result> queue, Result r) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				queue.put(r);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	static boolean isShortcut(Path p) {
+		Path name = p.getFileName();
+		if (name == null)
+			return false;
+		return isShortcut(name.toString());
+	}
+
+	static boolean isShortcut(String s) {
+		return s.regionMatches(true, s.length() - SUFFIX.length(), SUFFIX, 0,
+				SUFFIX.length());
+	}
+
+	void submit(final Path file, final Listener listener,
+			final Semaphore permits) {
+		submit(file, null, listener, permits);
+	}
+
+	/* parses data, which the shortcut may keep, or else loads file */
+	void submit(final Path file, final ByteBuffer data,
+			final Listener listener, final Semaphore permits) {
+		Runnable task = new Runnable() {
+			public void run() {
+				try {
+					Shortcut s;
+					try {
+						if (data != null)
+							s = Shortcut.parse(new Shortcut(), data, null, lazy,
+									-1, pool, limits);
+						else
+							s = Shortcut.load(file, lazy, pool, limits);
+					} catch (IOException e) {
+						listener.failed(file, e);
+						return;
+					} catch (MalformedShortcutException e) {
+						listener.failed(file, e);
+						return;
+					} catch (RuntimeException e) {
+						listener.failed(file, e);
+						return;
+					}
+					listener.shortcut(file, s);
+				} finally {
+					permits.release();
+				}
+			}
+		};
+		try {
+			executor.execute(task);
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+/**
+ * Receives section-level events while a shortcut is parsed or serialized.
+ * Nothing is reported (and no diagnostic strings are built) unless a trace
+ * is passed to {@link Shortcut#loadShortcut(java.io.File, ShortcutTrace)} or
+ * {@link Shortcut#writeTo(java.io.OutputStream, ShortcutTrace)}.
+ */
+public interface ShortcutTrace {
+
+	/**
+	 * Header was decoded.
+	 */
+	void header(int flags, int attributes);
+
+	/**
+	 * A section was read or written. Offsets are relative to the start of the
+	 * shortcut, lengths include the section's own length prefix.
+	 */
+	void section(String name, int offset, int length);
+
+	/**
+	 * A single item of the shell item id list was read or written.
+	 */
+	void shellItem(int index, int offset, int length);
+
+	/**
+	 * Trailing extra data block, or the terminal block, was indexed.
+	 */
+	void extraData(int offset, int length);
+}
@@ -0,0 +1,456 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the shortcuts under some directory trees and reports the
+ * ones that appear, change or disappear. Trees are watched with a
+ * {@link WatchService}; events are collected until the trees have been quiet
+ * for the debounce delay, then every touched file is checked once, so a
+ * burst of writes to one file yields one notification. Only files whose
+ * size or modification time changed are parsed. An overflow rescans the
+ * directory that lost events.
+ * <p>
+ * Trees on file systems that do not deliver events, or added with
+ * <code>poll</code> set, are rescanned every poll interval instead; such a
+ * rescan stats every file but still only parses the changed ones.
+ * <p>
+ * Roots are added before {@link #start()}; their initial content is
+ * recorded without notifications. The listener is called from the watcher
+ * thread; a runtime exception it throws goes to the thread's uncaught
+ * exception handler and the watch goes on. A file that fails to parse is
+ * reported as added once it parses.
+ */
+public class ShortcutWatcher implements Closeable {
+
+	public interface Listener {
+		void added(Path file, Shortcut shortcut);
+
+		void modified(Path file, Shortcut shortcut);
+
+		void removed(Path file);
+
+		/**
+		 * A file could not be parsed or a directory could not be read or
+		 * watched.
+		 */
+		void failed(Path file, Exception e);
+	}
+
+	static final class Stamp {
+		final Path path;
+		final long size;
+		final long mtime;
+		/* the listener was told about the file, it failed to parse if not */
+		final boolean announced;
+
+		Stamp(Path path, long size, long mtime, boolean announced) {
+			this.path = path;
+			this.size = size;
+			this.mtime = mtime;
+			this.announced = announced;
+		}
+	}
+
+	/*
+	 * a throwing callback is handed to the thread's uncaught exception
+	 * handler, it must not end the watch
+	 */
+	static final class Guarded implements Listener {
+		final Listener listener;
+
+		Guarded(Listener listener) {
+			this.listener = listener;
+		}
+
+		public void added(Path file, Shortcut shortcut) {
+			try {
+				listener.added(file, shortcut);
+			} catch (RuntimeException e) {
+				report(e);
+			}
+		}
+
+		public void modified(Path file, Shortcut shortcut) {
+			try {
+				listener.modified(file, shortcut);
+			} catch (RuntimeException e) {
+				report(e);
+			}
+		}
+
+		public void removed(Path file) {
+			try {
+				listener.removed(file);
+			} catch (RuntimeException e) {
+				report(e);
+			}
+		}
+
+		public void failed(Path file, Exception e) {
+			try {
+				listener.failed(file, e);
+			} catch (RuntimeException x) {
+				report(x);
+			}
+		}
+
+		static void report(RuntimeException e) {
+			Thread t = Thread.currentThread();
+			t.getUncaughtExceptionHandler().uncaughtException(t, e);
+		}
+	}
+
+	static final long MAX_DELAY_FACTOR = 10;
+
+	final Listener listener;
+	final WatchService service;
+	final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+	final List<Path> polled = new ArrayList<Path>();
+	/* by path string, sorted so a subtree is a key range */
+	final TreeMap<String, Stamp> known = new TreeMap<String, Stamp>();
+	/* touched since the last flush */
+	final Set<Path> dirty = new LinkedHashSet<Path>();
+	final Set<Path> rescans = new LinkedHashSet<Path>();
+	long dirtySince = 0;
+	long debounceMillis = 200;
+	long pollMillis = 10000;
+	Thread thread = null;
+	volatile boolean closed = false;
+
+	public ShortcutWatcher(Listener listener) throws IOException {
+		this.listener = new Guarded(listener);
+		this.service = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Time without events after which collected changes are processed, they
+	 * are processed after ten times this delay under constant churn.
+	 */
+	public void setDebounce(long delay, TimeUnit unit) {
+		debounceMillis = Math.max(1, unit.toMillis(delay));
+	}
+
+	public void setPollInterval(long interval, TimeUnit unit) {
+		pollMillis = Math.max(1, unit.toMillis(interval));
+	}
+
+	public void watch(Path root) throws IOException {
+		watch(root, false);
+	}
+
+	/**
+	 * Records the shortcuts under <code>root</code> and watches the tree,
+	 * by polling if <code>poll</code> is set or events are not supported.
+	 */
+	public synchronized void watch(Path root, boolean poll)
+			throws IOException {
+		if (thread != null)
+			throw new IllegalStateException("already started");
+		Path top = root.toAbsolutePath().normalize();
+		if (!Files.isDirectory(top))
+			throw new NoSuchFileException(top.toString());
+		if (!poll && !top.getFileSystem().equals(FileSystems.getDefault()))
+			poll = true;
+		if (!poll) {
+			try {
+				register(top);
+			} catch (IOException e) {
+				poll = true;
+			} catch (UnsupportedOperationException e) {
+				poll = true;
+			}
+		}
+		if (poll)
+			polled.add(top);
+		rescan(top, !poll, false);
+	}
+
+	/**
+	 * Starts the daemon thread delivering notifications.
+	 */
+	public synchronized void start() {
+		if (thread != null)
+			throw new IllegalStateException("already started");
+		thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		}, "ShortcutWatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void close() throws IOException {
+		closed = true;
+		service.close();
+		Thread t;
+		synchronized (this) {
+			t = thread;
+		}
+		if (t != null && t != Thread.currentThread()) {
+			t.interrupt();
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	void loop() {
+		long nextPoll = System.currentTimeMillis() + pollMillis;
+		while (!closed) {
+			long now = System.currentTimeMillis();
+			long wait;
+			if (!dirty.isEmpty() || !rescans.isEmpty())
+				wait = Math.min(debounceMillis, dirtySince + MAX_DELAY_FACTOR
+						* debounceMillis - now);
+			else if (!polled.isEmpty())
+				wait = nextPoll - now;
+			else
+				wait = Long.MAX_VALUE;
+			WatchKey key;
+			try {
+				key = (wait > 0) ? service.poll(wait, TimeUnit.MILLISECONDS)
+						: service.poll();
+			} catch (ClosedWatchServiceException e) {
+				return;
+			} catch (InterruptedException e) {
+				return;
+			}
+			now = System.currentTimeMillis();
+			if (key != null) {
+				if (dirty.isEmpty() && rescans.isEmpty())
+					dirtySince = now;
+				for (; key != null; key = service.poll())
+					collect(key);
+				if (now - dirtySince < MAX_DELAY_FACTOR * debounceMillis)
+					continue;
+			}
+			flush();
+			if (!polled.isEmpty() && now >= nextPoll) {
+				for (Path root : polled)
+					rescan(root, false, true);
+				nextPoll = System.currentTimeMillis() + pollMillis;
+			}
+		}
+	}
+
+	void collect(WatchKey key) {
+		Path dir = keys.get(key);
+		for (WatchEvent<?> ev : key.pollEvents()) {
+			if (dir == null)
+				continue;
+			if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+				rescans.add(dir);
+				continue;
+			}
+			Path child = dir.resolve((Path) ev.context());
+			if (ev.kind() == StandardWatchEventKinds.ENTRY_CREATE
+					&& Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS))
+				rescans.add(child);
+			else
+				dirty.add(child);
+		}
+		if (!key.reset())
+			keys.remove(key);
+	}
+
+	void flush() {
+		for (Path p : dirty)
+			check(p);
+		dirty.clear();
+		for (Path dir : rescans)
+			rescan(dir, true, true);
+		rescans.clear();
+	}
+
+	/* one touched path */
+	void check(Path p) {
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(p, BasicFileAttributes.class,
+					LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException e) {
+			removeUnder(p.toString());
+			return;
+		}
+		if (attrs.isDirectory())
+			rescan(p, true, true);
+		else if (attrs.isRegularFile() && ShortcutScanner.isShortcut(p))
+			update(p, attrs, true);
+	}
+
+	/*
+	 * diffs the tree against what is known, registering new directories when
+	 * watch is set
+	 */
+	void rescan(Path top, boolean watch, boolean notify) {
+		Set<String> seen = new HashSet<String>();
+		ArrayDeque<Path> dirs = new ArrayDeque<Path>();
+		dirs.push(top);
+		while (!dirs.isEmpty()) {
+			Path dir = dirs.pop();
+			if (watch) {
+				try {
+					register(dir);
+				} catch (IOException e) {
+					listener.failed(dir, e);
+				}
+			}
+			DirectoryStream<Path> ds;
+			try {
+				ds = Files.newDirectoryStream(dir);
+			} catch (IOException e) {
+				if (Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+					/* unreadable for now, keep what is known under it */
+					seen.addAll(under(dir.toString()).keySet());
+					listener.failed(dir, e);
+				}
+				continue;
+			}
+			try {
+				for (Path p : ds) {
+					BasicFileAttributes attrs;
+					try {
+						attrs = Files.readAttributes(p,
+								BasicFileAttributes.class,
+								LinkOption.NOFOLLOW_LINKS);
+					} catch (IOException e) {
+						continue;
+					}
+					if (attrs.isDirectory())
+						dirs.push(p);
+					else if (attrs.isRegularFile()
+							&& ShortcutScanner.isShortcut(p)) {
+						seen.add(p.toString());
+						update(p, attrs, notify);
+					}
+				}
+			} finally {
+				try {
+					ds.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		Iterator<Stamp> it = under(top.toString()).values().iterator();
+		while (it.hasNext()) {
+			Stamp st = it.next();
+			if (!seen.contains(st.path.toString())) {
+				it.remove();
+				if (notify && st.announced)
+					listener.removed(st.path);
+			}
+		}
+	}
+
+	/*
+	 * files are stamped whether they parse or not, so an unchanged broken
+	 * file is not parsed again; its first good parse is reported as added
+	 */
+	void update(Path p, BasicFileAttributes attrs, boolean notify) {
+		long size = attrs.size();
+		long mtime = attrs.lastModifiedTime().toMillis();
+		String key = p.toString();
+		Stamp old = known.get(key);
+		if (old != null && old.size == size && old.mtime == mtime)
+			return;
+		if (!notify) {
+			/* the initial state is known to the caller */
+			known.put(key, new Stamp(p, size, mtime, true));
+			return;
+		}
+		boolean announced = old != null && old.announced;
+		Shortcut s = null;
+		Exception failure = null;
+		try {
+			s = Shortcut.loadShortcut(p);
+		} catch (IOException e) {
+			failure = e;
+		} catch (MalformedShortcutException e) {
+			failure = e;
+		}
+		known.put(key, new Stamp(p, size, mtime, announced || s != null));
+		if (failure != null)
+			listener.failed(p, failure);
+		else if (!announced)
+			listener.added(p, s);
+		else
+			listener.modified(p, s);
+	}
+
+	/* path and everything below it are gone */
+	void removeUnder(String path) {
+		Stamp old = known.remove(path);
+		if (old != null && old.announced)
+			listener.removed(old.path);
+		SortedMap<String, Stamp> below = under(path);
+		for (Stamp st : below.values())
+			if (st.announced)
+				listener.removed(st.path);
+		below.clear();
+	}
+
+	/* known files strictly below dir */
+	SortedMap<String, Stamp> under(String dir) {
+		String prefix = dir.endsWith(File.separator) ? dir : dir
+				+ File.separator;
+		return known.subMap(prefix, prefix + Character.MAX_VALUE);
+	}
+
+	void register(Path dir) throws IOException {
+		WatchKey key = dir.register(service,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		keys.put(key, dir);
+	}
+}
@@ -0,0 +1,327 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.nio.ByteBuffer;
+
+import org.kac.MalformedShortcutException.Reason;
+import org.kac.Shortcut.FileLocationInfo;
+import org.kac.Shortcut.LocalVolumeTable;
+import org.kac.Shortcut.NetworkVolumeTable;
+
+/**
+ * Serializes a {@link Shortcut} in one pass into an array pre-sized from
+ * {@link Shortcut#byteSize()}, through the {@link LittleEndian} accessors.
+ * Structures whose size is only known at the end (FileLocationInfo, the
+ * volume tables) are written first and their length fields patched
+ * afterwards. Every thread reuses its own writer and array.
+ */
+final class ShortcutWriter {
+
+	static final int INITIAL_SIZE = 1 << 10;
+	/* terminal extra data block */
+	static final int TERMINAL_SIZE = 4;
+
+	private static final ThreadLocal<ShortcutWriter> writers = new ThreadLocal<ShortcutWriter>();
+
+	byte[] buff = new byte[INITIAL_SIZE];
+	/* wraps buff, replaced when buff grows */
+	ByteBuffer view = ByteBuffer.wrap(buff);
+	int pos = 0;
+	ShortcutTrace trace = null;
+
+	static ShortcutWriter get() {
+		ShortcutWriter w = writers.get();
+		if (w == null) {
+			w = new ShortcutWriter();
+			writers.set(w);
+		}
+		return w;
+	}
+
+	/**
+	 * Returns a buffer over the encoded shortcut, it is overwritten by the
+	 * next call on the same thread.
+	 */
+	ByteBuffer write(Shortcut s, ShortcutTrace trace)
+			throws MalformedShortcutException {
+		int size = s.byteSize();
+		this.trace = trace;
+		pos = 0;
+		ensure(size);
+		try {
+			writeShortcut(s);
+		} finally {
+			this.trace = null;
+		}
+		checkSize(size);
+		return flip();
+	}
+
+	ByteBuffer write(FileLocationInfo fli) throws MalformedShortcutException {
+		int size = fli.byteSize();
+		pos = 0;
+		ensure(size);
+		writeFileLocationInfo(fli);
+		checkSize(size);
+		return flip();
+	}
+
+	ByteBuffer write(LocalVolumeTable lvt) {
+		int size = lvt.byteSize();
+		pos = 0;
+		ensure(size);
+		writeLocalVolumeTable(lvt);
+		checkSize(size);
+		return flip();
+	}
+
+	ByteBuffer write(NetworkVolumeTable nvt) {
+		int size = nvt.byteSize();
+		pos = 0;
+		ensure(size);
+		writeNetworkVolumeTable(nvt);
+		checkSize(size);
+		return flip();
+	}
+
+	/* the buffer was sized by byteSize(), which has to match */
+	void checkSize(int size) {
+		if (pos != size)
+			throw new IllegalStateException("byteSize() " + size
+					+ " but wrote " + pos + " bytes");
+	}
+
+	static byte[] toArray(ByteBuffer b) {
+		byte[] out = new byte[b.remaining()];
+		b.get(out);
+		return out;
+	}
+
+	ByteBuffer flip() {
+		view.clear();
+		view.limit(pos);
+		return view;
+	}
+
+	void ensure(int n) {
+		if (buff.length - pos >= n)
+			return;
+		int cap = buff.length;
+		while (cap - pos < n)
+			cap <<= 1;
+		byte[] b = new byte[cap];
+		System.arraycopy(buff, 0, b, 0, pos);
+		buff = b;
+		view = ByteBuffer.wrap(buff);
+	}
+
+	void putShort(short v) {
+		pos += LittleEndian.setShort(buff, pos, v);
+	}
+
+	void putInt(int v) {
+		pos += LittleEndian.setInt(buff, pos, v);
+	}
+
+	void putLong(long v) {
+		pos += LittleEndian.setLong(buff, pos, v);
+	}
+
+	void put(byte[] b) {
+		System.arraycopy(b, 0, buff, pos, b.length);
+		pos += b.length;
+	}
+
+	void put(byte[] b, int off, int len) {
+		System.arraycopy(b, off, buff, pos, len);
+		pos += len;
+	}
+
+	void writeShortcut(Shortcut s) throws MalformedShortcutException {
+		String desc = s.getDescription();
+		String rel = s.getRelativePath();
+		String work = s.getWorkingDirectory();
+		String cmd = s.getCommandLine();
+		String ico = s.getIconFileName();
+		int iflag = ((s.shellItemIDList != null) ? Shortcut.F_ID_LIST : 0)
+				| ((s.fileLocationInfo != null) ? Shortcut.F_LOCATION : 0)
+				| ((desc != null) ? Shortcut.F_DESCRIPTION : 0)
+				| ((rel != null) ? Shortcut.F_RELATIVE_PATH : 0)
+				| ((work != null) ? Shortcut.F_WORKING_DIRECTORY : 0)
+				| ((cmd != null) ? Shortcut.F_COMMAND_LINE : 0)
+				| ((ico != null) ? Shortcut.F_CUSTOM_ICON : 0)
+				| Shortcut.F_SOMETHING;
+		if (trace != null)
+			trace.header(iflag, s.attributes);
+
+		ensure(Shortcut.HEADER_SIZE);
+		put(Shortcut._headerEl);
+		put(Shortcut._headerGUID);
+		putInt(iflag);
+		putInt(s.attributes);
+		putLong(s.cTime);
+		putLong(s.mTime);
+		putLong(s.aTime);
+		putInt(s.fileLength);
+		putInt(s.iconID);
+		putInt(s.showWnd);
+		putInt(s.hotKey);
+		putLong(s.unknown0);
+
+		int off = pos;
+		if (s.shellItemIDList != null) {
+			writeShellItemIDList(s);
+			traced("shellItemIDList", off);
+		}
+		if (s.fileLocationInfo != null) {
+			off = pos;
+			writeFileLocationInfo(s.fileLocationInfo);
+			traced("fileLocationInfo", off);
+		}
+		writeUString("description", desc);
+		writeUString("relativePath", rel);
+		writeUString("workingDirectory", work);
+		writeUString("commandLine", cmd);
+		writeUString("iconFileName", ico);
+		/*
+		 * F_SOMETHING is always set, an empty terminal block satisfies both
+		 * the 'something' section and the extra data walk of the loader
+		 */
+		ensure(TERMINAL_SIZE);
+		putInt(0);
+	}
+
+	/* the 16 bit length word also counts the terminator */
+	void writeShellItemIDList(Shortcut s) throws MalformedShortcutException {
+		ShellItemIDList list = s.shellItemIDList;
+		if (list.byteLength() > 0xFFFD)
+			throw new MalformedShortcutException(Reason.BAD_LENGTH, pos,
+					"shell item id list of " + list.byteLength() + " bytes");
+		ensure(list.byteLength() + 4);
+		putShort((short) (list.byteLength() + 2));
+		if (trace != null) {
+			ShellItemIDList.Cursor c = list.cursor();
+			while (c.next())
+				trace.shellItem(c.index(), pos + c.offset(),
+						c.contentLength() + 2);
+		}
+		put(list.data, 0, list.byteLength());
+		putShort((short) 0);
+	}
+
+	void writeFileLocationInfo(FileLocationInfo fli)
+			throws MalformedShortcutException {
+		int iflag;
+		if (fli.lvt != null)
+			iflag = Shortcut.FF_LOCAL;
+		else if (fli.nvt != null)
+			iflag = Shortcut.FF_NETWORK;
+		else
+			throw new MalformedShortcutException("no lvt or nvt");
+		int start = pos;
+		ensure(0x1C);
+		pos += 0x1C;
+		if (fli.lvt != null)
+			writeLocalVolumeTable(fli.lvt);
+		else
+			writeNetworkVolumeTable(fli.nvt);
+		/* the loader relies on the remaining path (and local base path) */
+		int offLBP = pos - start;
+		writeAsciiz((fli.lvt != null) ? nonNull(fli.getBasePathName()) : fli
+				.getBasePathName());
+		int offRPN = pos - start;
+		writeAsciiz(nonNull(fli.getRemainingPathName()));
+		LittleEndian.setInt(buff, start + 0x00, pos - start);
+		LittleEndian.setInt(buff, start + 0x04, 0x1C);
+		LittleEndian.setInt(buff, start + 0x08, iflag);
+		LittleEndian.setInt(buff, start + 0x0C, 0x1C);
+		LittleEndian.setInt(buff, start + 0x10, offLBP);
+		LittleEndian.setInt(buff, start + 0x14, 0x1C);
+		LittleEndian.setInt(buff, start + 0x18, offRPN);
+	}
+
+	void writeLocalVolumeTable(LocalVolumeTable lvt) {
+		int start = pos;
+		ensure(0x10);
+		pos += 0x10;
+		writeAsciiz(lvt.getVolumeLabel());
+		LittleEndian.setInt(buff, start + 0x00, pos - start);
+		LittleEndian.setInt(buff, start + 0x04, lvt.type);
+		LittleEndian.setInt(buff, start + 0x08, lvt.serial);
+		LittleEndian.setInt(buff, start + 0x0C, 0x10);
+	}
+
+	void writeNetworkVolumeTable(NetworkVolumeTable nvt) {
+		int start = pos;
+		ensure(0x14);
+		pos += 0x14;
+		writeAsciiz(nvt.getShareName());
+		int offLSM = pos - start;
+		writeAsciiz(nvt.getLocalShareMapping());
+		LittleEndian.setInt(buff, start + 0x00, pos - start);
+		LittleEndian.setInt(buff, start + 0x04, pos - start - offLSM);
+		LittleEndian.setInt(buff, start + 0x08, 0x14);
+		/* the loader only reads a mapping at a non zero offset */
+		LittleEndian.setInt(buff, start + 0x0C,
+				(nvt.getLocalShareMapping() != null) ? offLSM : 0);
+		LittleEndian.setInt(buff, start + 0x10, 0x140000);
+	}
+
+	/* counted UTF-16LE string section, nothing is written for null */
+	void writeUString(String name, String s)
+			throws MalformedShortcutException {
+		if (s == null)
+			return;
+		int off = pos;
+		int len = s.length();
+		if (len > 0xFFFF)
+			throw new MalformedShortcutException(Reason.BAD_LENGTH, pos, name
+					+ " of " + len + " characters");
+		ensure(2 + 2 * len);
+		putShort((short) len);
+		for (int i = 0; i < len; i++)
+			putShort((short) s.charAt(i));
+		traced(name, off);
+	}
+
+	/* zero terminated US-ASCII string, nothing is written for null */
+	void writeAsciiz(String s) {
+		if (s == null)
+			return;
+		int len = s.length();
+		ensure(len + 1);
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			buff[pos++] = (byte) ((c < 0x80) ? c : '?');
+		}
+		buff[pos++] = 0;
+	}
+
+	static String nonNull(String s) {
+		return (s != null) ? s : "";
+	}
+
+	void traced(String name, int off) {
+		if (trace != null)
+			trace.section(name, off, pos - off);
+	}
+}
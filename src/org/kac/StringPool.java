@@ -0,0 +1,139 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of decoded strings for fields that repeat across many
+ * shortcuts: working directories, volume labels, share names and base paths.
+ * Lookups hash the raw bytes and only decode on a miss, so a hit costs no
+ * allocation and returns the very same String as before. The table is
+ * direct-mapped, a colliding string simply replaces the previous one, and
+ * strings longer than the byte cap are never pooled.
+ * <p>
+ * One pool can be shared by any number of threads.
+ */
+public final class StringPool {
+
+	static final int DEFAULT_CAPACITY = 4096;
+	static final int DEFAULT_MAX_BYTES = 520;
+
+	static final class Entry {
+		final int hash;
+		final boolean utf16;
+		final byte[] key;
+		final String value;
+
+		Entry(int hash, boolean utf16, byte[] key, String value) {
+			this.hash = hash;
+			this.utf16 = utf16;
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	final Entry[] table;
+	final int maxBytes;
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+
+	public StringPool() {
+		this(DEFAULT_CAPACITY, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of slots, rounded up to a power of two
+	 * @param maxBytes
+	 *            longest encoded string that is pooled
+	 */
+	public StringPool(int capacity, int maxBytes) {
+		if (capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("capacity: " + capacity);
+		int n = 1;
+		while (n < capacity)
+			n <<= 1;
+		this.table = new Entry[n];
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * The string stored in <code>len</code> bytes at <code>off</code>, in
+	 * UTF-16LE or in the platform charset.
+	 */
+	String get(ByteBuffer buff, int off, int len, boolean utf16) {
+		if (len > maxBytes)
+			return decode(buff, off, len, utf16);
+		Shortcut.checkRange(buff, off, len);
+		int h = utf16 ? 1 : 0;
+		for (int i = 0; i < len; i++)
+			h = 31 * h + buff.get(off + i);
+		h ^= h >>> 16;
+		int slot = h & (table.length - 1);
+		Entry e = table[slot];
+		if (e != null && e.hash == h && e.utf16 == utf16
+				&& matches(e.key, buff, off, len)) {
+			hits.increment();
+			return e.value;
+		}
+		misses.increment();
+		byte[] key = new byte[len];
+		buff.get(off, key);
+		String value = decode(buff, off, len, utf16);
+		table[slot] = new Entry(h, utf16, key, value);
+		return value;
+	}
+
+	static String decode(ByteBuffer buff, int off, int len, boolean utf16) {
+		return utf16 ? Shortcut.getUString(buff, off, len / 2) : Shortcut
+				.getString(buff, off, len);
+	}
+
+	static boolean matches(byte[] key, ByteBuffer buff, int off, int len) {
+		if (key.length != len)
+			return false;
+		for (int i = 0; i < len; i++)
+			if (key[i] != buff.get(off + i))
+				return false;
+		return true;
+	}
+
+	public int capacity() {
+		return table.length;
+	}
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	public long misses() {
+		return misses.sum();
+	}
+
+	public void clear() {
+		for (int i = 0; i < table.length; i++)
+			table[i] = null;
+		hits.reset();
+		misses.reset();
+	}
+}
@@ -0,0 +1,242 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps link targets to the shortcut files pointing at them. Targets are
+ * normalized Windows paths split into case-folded components and stored in
+ * a trie, so the links into a directory are found by walking to its node and
+ * collecting the subtree, independent of the number of indexed links.
+ * <p>
+ * A shortcut is indexed under its local path (base and remaining path), its
+ * UNC path (share name and remaining path) and its relative path resolved
+ * against the directory of the link file. It can be filled by a
+ * {@link ShortcutScanner} directly; all methods are synchronized.
+ */
+public final class TargetIndex implements ShortcutScanner.Listener {
+
+	static final class Node {
+		final Node parent;
+		final String name;
+		Map<String, Node> children = null;
+		Set<Path> links = null;
+
+		Node(Node parent, String name) {
+			this.parent = parent;
+			this.name = name;
+		}
+
+		boolean isEmpty() {
+			return (children == null || children.isEmpty())
+					&& (links == null || links.isEmpty());
+		}
+	}
+
+	final Node root = new Node(null, "");
+	/* nodes every link is stored at, for remove() */
+	final Map<Path, List<Node>> targets = new HashMap<Path, List<Node>>();
+
+	/**
+	 * Indexes <code>shortcut</code>, read from <code>link</code>, replacing
+	 * what was indexed for the file before.
+	 */
+	public synchronized void add(Path link, Shortcut shortcut) {
+		remove(link);
+		List<Node> nodes = new ArrayList<Node>(2);
+		for (List<String> target : targetsOf(link, shortcut)) {
+			Node n = root;
+			for (String c : target) {
+				if (n.children == null)
+					n.children = new HashMap<String, Node>(4);
+				Node next = n.children.get(c);
+				if (next == null) {
+					next = new Node(n, c);
+					n.children.put(c, next);
+				}
+				n = next;
+			}
+			if (n.links == null)
+				n.links = new HashSet<Path>(2);
+			n.links.add(link);
+			nodes.add(n);
+		}
+		if (!nodes.isEmpty())
+			targets.put(link, nodes);
+	}
+
+	public synchronized void remove(Path link) {
+		List<Node> nodes = targets.remove(link);
+		if (nodes == null)
+			return;
+		for (Node n : nodes) {
+			n.links.remove(link);
+			for (; n.parent != null && n.isEmpty(); n = n.parent)
+				n.parent.children.remove(n.name);
+		}
+	}
+
+	/**
+	 * Links whose target is <code>target</code> itself.
+	 */
+	public synchronized Set<Path> linksTo(String target) {
+		Set<Path> out = new LinkedHashSet<Path>();
+		Node n = find(target);
+		if (n != null && n.links != null)
+			out.addAll(n.links);
+		return out;
+	}
+
+	/**
+	 * Links whose target is <code>dir</code> or anything below it, e.g.
+	 * <code>\\fs01\dept</code>.
+	 */
+	public synchronized Set<Path> linksUnder(String dir) {
+		Set<Path> out = new LinkedHashSet<Path>();
+		Node n = find(dir);
+		if (n != null)
+			collect(n, out);
+		return out;
+	}
+
+	/* number of indexed links */
+	public synchronized int size() {
+		return targets.size();
+	}
+
+	public void shortcut(Path file, Shortcut shortcut) {
+		add(file, shortcut);
+	}
+
+	public void failed(Path file, Exception e) {
+	}
+
+	Node find(String path) {
+		Node n = root;
+		for (String c : components(path, null)) {
+			if (n.children == null)
+				return null;
+			n = n.children.get(c);
+			if (n == null)
+				return null;
+		}
+		return n;
+	}
+
+	static void collect(Node n, Collection<Path> out) {
+		if (n.links != null)
+			out.addAll(n.links);
+		if (n.children != null)
+			for (Node c : n.children.values())
+				collect(c, out);
+	}
+
+	static Set<List<String>> targetsOf(Path link, Shortcut s) {
+		Set<List<String>> out = new LinkedHashSet<List<String>>();
+		Shortcut.FileLocationInfo fli = s.getFileLocationInfo();
+		if (fli != null) {
+			add(out, fli.localPath());
+			add(out, fli.networkPath());
+		}
+		String rel = s.getRelativePath();
+		if (rel != null && rel.length() > 0) {
+			Path dir = link.toAbsolutePath().getParent();
+			List<String> base = (dir == null) ? null : components(dir
+					.toString(), null);
+			add(out, components(rel, base));
+		}
+		return out;
+	}
+
+	static void add(Collection<List<String>> out, List<String> c) {
+		if (!c.isEmpty())
+			out.add(c);
+	}
+
+	/* components of an absolute Windows path, if any */
+	static void add(Collection<List<String>> out, String path) {
+		if (path != null)
+			add(out, components(path, null));
+	}
+
+	/**
+	 * Root first, case-folded components of <code>path</code>, separated by
+	 * either slash. The root is <code>\\server</code> for UNC paths, the
+	 * drive for drive paths and <code>/</code> for absolute Unix paths.
+	 * Relative paths are resolved against <code>base</code>, or kept as they
+	 * are without one.
+	 */
+	static List<String> components(String path, List<String> base) {
+		List<String> out = new ArrayList<String>();
+		int i = 0;
+		int n = path.length();
+		if (n >= 2 && isSep(path.charAt(0)) && isSep(path.charAt(1))) {
+			int end = 2;
+			while (end < n && !isSep(path.charAt(end)))
+				end++;
+			out.add("\\\\" + fold(path.substring(2, end)));
+			i = end;
+		} else if (n >= 2 && path.charAt(1) == ':') {
+			out.add(fold(path.substring(0, 2)));
+			i = 2;
+		} else if (n >= 1 && isSep(path.charAt(0))) {
+			out.add("/");
+		} else if (base != null)
+			out.addAll(base);
+		/* the root of a base cannot be left either */
+		int rootSize = Math.min(out.size(), 1);
+		while (i < n) {
+			while (i < n && isSep(path.charAt(i)))
+				i++;
+			int end = i;
+			while (end < n && !isSep(path.charAt(end)))
+				end++;
+			if (end > i) {
+				String c = path.substring(i, end);
+				if (c.equals("..")) {
+					if (out.size() > rootSize)
+						out.remove(out.size() - 1);
+				} else if (!c.equals("."))
+					out.add(fold(c));
+			}
+			i = end;
+		}
+		return out;
+	}
+
+	static boolean isSep(char c) {
+		return c == '\\' || c == '/';
+	}
+
+	static String fold(String s) {
+		return s.toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,270 @@
+/***************************************************************************
+ *   Copyright (C) 2009 by Piotr Kopeć                                     *
+ *   piotr.kopec.ogolny@gmail.com                                          *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+
+package org.kac;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Checks whether shortcut targets exist on local mounts of the Windows
+ * volumes and shares. Drive letters and UNC prefixes are mapped to mount
+ * points; a target is then looked up one component at a time in cached,
+ * case-insensitive directory listings, so every directory is listed once no
+ * matter how many targets go through it, and no file is stat'ed on its own.
+ * Listings are cached until {@link #clearCache()}, so changes made on the
+ * mounts are only seen after it; callers checking again later clear the
+ * cache first. At most {@link #setCacheSize(int)} listings are kept, beyond
+ * it arbitrary ones are dropped and listed again when needed. Failed
+ * listings are listed again by the next lookup.
+ */
+public final class TargetVerifier {
+
+	public enum Status {
+		/** the target was found */
+		EXISTS,
+		/** a component of the target path is missing */
+		MISSING,
+		/** no mapping covers the target */
+		UNMAPPED,
+		/** the shortcut has no location info */
+		NO_TARGET,
+		/** a directory on the way could not be listed */
+		UNREADABLE,
+		/** the check threw, the shortcut is likely malformed */
+		FAILED
+	}
+
+	/* replaced as a whole by map(), lookups read it without locking */
+	volatile Mounts mounts = new Mounts(new HashMap<List<String>, Path>());
+	/* directory to its entries by case-folded name */
+	final ConcurrentHashMap<Path, Future<Map<String, String>>> listings =
+			new ConcurrentHashMap<Path, Future<Map<String, String>>>();
+	volatile int maxListings = 10000;
+
+	/**
+	 * Maps a drive (<code>C:</code>), a server (<code>\\fs01</code>) or a
+	 * share (<code>\\fs01\dept</code>) to a local directory. The longest
+	 * matching prefix wins.
+	 */
+	public synchronized void map(String windowsPrefix, Path mountPoint) {
+		List<String> key = TargetIndex.components(windowsPrefix, null);
+		if (key.isEmpty())
+			throw new IllegalArgumentException(windowsPrefix);
+		Map<List<String>, Path> m = new HashMap<List<String>, Path>(
+				mounts.byPrefix);
+		m.put(key, mountPoint.toAbsolutePath().normalize());
+		mounts = new Mounts(m);
+	}
+
+	static final class Mounts {
+		/* by case-folded components of the Windows prefix */
+		final Map<List<String>, Path> byPrefix;
+		final int longestPrefix;
+
+		/* takes ownership of byPrefix */
+		Mounts(Map<List<String>, Path> byPrefix) {
+			this.byPrefix = byPrefix;
+			int longest = 0;
+			for (List<String> k : byPrefix.keySet())
+				longest = Math.max(longest, k.size());
+			longestPrefix = longest;
+		}
+
+		/* length of the longest mapped prefix of target, 0 if none */
+		int prefix(List<String> target) {
+			for (int n = Math.min(longestPrefix, target.size()); n > 0; n--)
+				if (byPrefix.containsKey(target.subList(0, n)))
+					return n;
+			return 0;
+		}
+	}
+
+	public void clearCache() {
+		listings.clear();
+	}
+
+	/**
+	 * Number of directory listings kept, 10000 by default.
+	 */
+	public void setCacheSize(int listings) {
+		if (listings < 1)
+			throw new IllegalArgumentException(Integer.toString(listings));
+		maxListings = listings;
+	}
+
+	/**
+	 * The local path the target maps to, or null. It is not checked and the
+	 * components below the mount point are case-folded.
+	 */
+	public Path resolve(Shortcut shortcut) {
+		Mounts m = mounts;
+		for (List<String> target : targets(shortcut)) {
+			int prefix = m.prefix(target);
+			if (prefix == 0)
+				continue;
+			Path p = m.byPrefix.get(target.subList(0, prefix));
+			for (String c : target.subList(prefix, target.size()))
+				p = p.resolve(c);
+			return p;
+		}
+		return null;
+	}
+
+	public Status check(Shortcut shortcut) {
+		List<List<String>> targets = targets(shortcut);
+		if (targets.isEmpty())
+			return Status.NO_TARGET;
+		Mounts m = mounts;
+		for (List<String> target : targets) {
+			int prefix = m.prefix(target);
+			if (prefix == 0)
+				continue;
+			Path dir = m.byPrefix.get(target.subList(0, prefix));
+			for (String c : target.subList(prefix, target.size())) {
+				Map<String, String> entries;
+				try {
+					entries = listing(dir);
+				} catch (NotDirectoryException e) {
+					/* a file where the path needs a directory */
+					return Status.MISSING;
+				} catch (IOException e) {
+					return Status.UNREADABLE;
+				}
+				String name = entries.get(c);
+				if (name == null)
+					return Status.MISSING;
+				dir = dir.resolve(name);
+			}
+			return Status.EXISTS;
+		}
+		return Status.UNMAPPED;
+	}
+
+	/**
+	 * Checks all shortcuts on <code>executor</code> and waits for the
+	 * results. A shortcut whose check throws gets {@link Status#FAILED}.
+	 */
+	public Map<Path, Status> checkAll(Map<Path, Shortcut> shortcuts,
+			ExecutorService executor) throws InterruptedException {
+		List<Path> files = new ArrayList<Path>(shortcuts.keySet());
+		List<Future<Status>> results = new ArrayList<Future<Status>>(files
+				.size());
+		for (final Path f : files) {
+			final Shortcut s = shortcuts.get(f);
+			results.add(executor.submit(new Callable<Status>() {
+				public Status call() {
+					return check(s);
+				}
+			}));
+		}
+		Map<Path, Status> out = new HashMap<Path, Status>();
+		for (int i = 0; i < files.size(); i++) {
+			try {
+				out.put(files.get(i), results.get(i).get());
+			} catch (ExecutionException e) {
+				out.put(files.get(i), Status.FAILED);
+			}
+		}
+		return out;
+	}
+
+	/* first caller lists, the others wait for it and share its failure */
+	Map<String, String> listing(final Path dir) throws IOException {
+		Future<Map<String, String>> f = listings.get(dir);
+		if (f == null) {
+			FutureTask<Map<String, String>> task =
+					new FutureTask<Map<String, String>>(
+							new Callable<Map<String, String>>() {
+								public Map<String, String> call()
+										throws IOException {
+									return list(dir);
+								}
+							});
+			f = listings.putIfAbsent(dir, task);
+			if (f == null) {
+				f = task;
+				if (listings.size() > maxListings)
+					trim(dir);
+				task.run();
+			}
+		}
+		try {
+			return f.get();
+		} catch (ExecutionException e) {
+			/* a failure may be transient, the next lookup lists again */
+			listings.remove(dir, f);
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted listing " + dir);
+		}
+	}
+
+	/* drops listings other than keep until the cache is within its bound */
+	void trim(Path keep) {
+		Iterator<Path> it = listings.keySet().iterator();
+		while (listings.size() > maxListings && it.hasNext())
+			if (!it.next().equals(keep))
+				it.remove();
+	}
+
+	static Map<String, String> list(Path dir) throws IOException {
+		Map<String, String> entries = new HashMap<String, String>();
+		DirectoryStream<Path> ds = Files.newDirectoryStream(dir);
+		try {
+			for (Path p : ds) {
+				String name = p.getFileName().toString();
+				entries.put(TargetIndex.fold(name), name);
+			}
+		} finally {
+			ds.close();
+		}
+		return Collections.unmodifiableMap(entries);
+	}
+
+	/* folded components of the UNC path, then of the local path */
+	static List<List<String>> targets(Shortcut s) {
+		List<List<String>> out = new ArrayList<List<String>>(2);
+		Shortcut.FileLocationInfo fli = s.getFileLocationInfo();
+		if (fli != null) {
+			TargetIndex.add(out, fli.networkPath());
+			TargetIndex.add(out, fli.localPath());
+		}
+		return out;
+	}
+}